@@ -54,6 +54,11 @@ public abstract class NestableCommand {
     GlobalOptions.getGlobalOptions().setColor(color);
   }
 
+  @Parameter(names = { "--fresh" }, description = "Validate without reusing results the daemon validated recently.")
+  public void setFresh(boolean fresh) {
+    GlobalOptions.getGlobalOptions().setFresh(fresh);
+  }
+
   private String fullCommandName = "";
 
   /**
@@ -105,6 +105,11 @@ public class Daemon {
         .setEndpoint(endpoint)
         .setClient(new OkClient())
         .setLogLevel(log ? RestAdapter.LogLevel.FULL : RestAdapter.LogLevel.NONE)
+        .setRequestInterceptor(request -> {
+          if (GlobalOptions.getGlobalOptions().isFresh()) {
+            request.addQueryParam("fresh", "true");
+          }
+        })
         .build()
         .create(DaemonService.class);
   }
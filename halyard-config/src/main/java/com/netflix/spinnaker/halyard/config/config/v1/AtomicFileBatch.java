@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes several files and commits them together.
+ *
+ * Every file is written and fsync'd before any of them replaces its target, so a failure while writing leaves all the
+ * targets untouched. Targets are then replaced in the order they were written, and each directory involved is fsync'd
+ * once for the whole batch rather than once per file.
+ *
+ * @see AtomicFileWriter
+ */
+public class AtomicFileBatch {
+  private final List<AtomicFileWriter> writers = new ArrayList<>();
+
+  public void write(Path path, String contents) throws IOException {
+    AtomicFileWriter writer = new AtomicFileWriter(path);
+    writers.add(writer);
+    writer.write(contents);
+  }
+
+  public void commit() throws IOException {
+    long start = System.nanoTime();
+    for (AtomicFileWriter writer : writers) {
+      writer.sync();
+    }
+
+    Set<Path> directories = new LinkedHashSet<>();
+    for (AtomicFileWriter writer : writers) {
+      writer.publish();
+      directories.add(writer.getPath().getParent());
+    }
+
+    directories.forEach(AtomicFileWriter::syncDirectory);
+    AtomicFileMetrics.recordCommit(System.nanoTime() - start);
+  }
+
+  /**
+   * Discards any files that weren't committed.
+   */
+  public void close() {
+    writers.forEach(AtomicFileWriter::close);
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of the files written through AtomicFileWriter and AtomicFileBatch, for the daemon's metrics.
+ */
+public class AtomicFileMetrics {
+  private static final AtomicLong writes = new AtomicLong();
+  private static final AtomicLong writeNanos = new AtomicLong();
+  private static final AtomicLong commits = new AtomicLong();
+  private static final AtomicLong commitNanos = new AtomicLong();
+
+  static void recordWrite(long nanos) {
+    writes.incrementAndGet();
+    writeNanos.addAndGet(nanos);
+  }
+
+  static void recordCommit(long nanos) {
+    commits.incrementAndGet();
+    commitNanos.addAndGet(nanos);
+  }
+
+  public static long getWrites() {
+    return writes.get();
+  }
+
+  public static double getWriteMillis() {
+    return (double) writeNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  public static long getCommits() {
+    return commits.get();
+  }
+
+  /**
+   * Time spent syncing and publishing files, where a batch counts as a single commit.
+   */
+  public static double getCommitMillis() {
+    return (double) commitNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
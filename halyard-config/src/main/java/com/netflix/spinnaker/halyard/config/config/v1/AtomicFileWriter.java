@@ -17,50 +17,106 @@
 package com.netflix.spinnaker.halyard.config.config.v1;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static java.nio.file.StandardOpenOption.APPEND;
-import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.nio.file.FileSystem;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.UUID;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.tomcat.jni.File;
-import org.springframework.util.FileCopyUtils;
 
+/**
+ * Writes a file by writing a temporary file next to it, and moving that over the original once it's complete.
+ *
+ * The temporary file is created in the same directory as its target, so that the move is an atomic rename on the same
+ * filesystem. On commit the file's contents are fsync'd before it's moved, and its directory is fsync'd after, so a
+ * committed write survives a crash, and an interrupted one leaves the original untouched.
+ *
+ * @see AtomicFileBatch to commit several files together.
+ */
 @Slf4j
 public class AtomicFileWriter {
   private final Path path;
   private final Path tmpPath;
+  private FileChannel channel;
   private Writer writer;
+  private boolean committed;
 
   AtomicFileWriter(String path) throws IOException {
     this(FileSystems.getDefault().getPath(path));
   }
 
   public AtomicFileWriter(Path path) throws IOException {
-    FileSystem defaultFileSystem = FileSystems.getDefault();
-    this.path = path;
-    path.getParent().toFile().mkdirs();
-    String tmpDir = System.getProperty("java.io.tmpdir");
-    this.tmpPath = defaultFileSystem.getPath(tmpDir, UUID.randomUUID().toString());
-    this.writer = Files.newBufferedWriter(this.tmpPath, UTF_8,
-            WRITE, APPEND, CREATE);
+    this.path = path.toAbsolutePath();
+    this.path.getParent().toFile().mkdirs();
+    this.tmpPath = this.path.resolveSibling("." + this.path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+    this.channel = FileChannel.open(this.tmpPath, CREATE_NEW, WRITE);
+    this.writer = new BufferedWriter(Channels.newWriter(channel, UTF_8.newEncoder(), -1));
   }
 
   public void write(String contents) throws IOException {
+    long start = System.nanoTime();
     writer.write(contents);
+    AtomicFileMetrics.recordWrite(System.nanoTime() - start);
   }
 
   public void commit() throws IOException {
+    long start = System.nanoTime();
+    sync();
+    publish();
+    syncDirectory(path.getParent());
+    AtomicFileMetrics.recordCommit(System.nanoTime() - start);
+  }
+
+  /**
+   * Flushes the contents written so far to disk, and closes the temporary file.
+   */
+  void sync() throws IOException {
+    writer.flush();
+    channel.force(true);
     writer.close();
     writer = null;
-    Files.move(tmpPath, path, REPLACE_EXISTING);
+    channel = null;
+  }
+
+  /**
+   * Moves the synced temporary file over the target.
+   */
+  void publish() throws IOException {
+    try {
+      Files.move(tmpPath, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      log.warn("Unable to atomically replace " + path + ", replacing it non-atomically instead");
+      Files.move(tmpPath, path, REPLACE_EXISTING);
+    }
+
+    committed = true;
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  /**
+   * Makes the renames of the files in a directory durable.
+   */
+  static void syncDirectory(Path directory) {
+    try (FileChannel channel = FileChannel.open(directory, READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // Not every platform allows opening or syncing a directory.
+      log.debug("Unable to sync directory " + directory, e);
+    }
   }
 
   public void close() {
@@ -69,7 +125,14 @@ public class AtomicFileWriter {
         writer.close();
       } catch (IOException e) {
         log.error("Failed to close file writer responsible for " + path.toString(), e);
-        e.printStackTrace();
+      }
+    }
+
+    if (!committed) {
+      try {
+        Files.deleteIfExists(tmpPath);
+      } catch (IOException e) {
+        log.warn("Failed to delete temporary file " + tmpPath, e);
       }
     }
   }
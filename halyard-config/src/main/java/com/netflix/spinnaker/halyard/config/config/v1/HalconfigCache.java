@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Keeps a copy of the last parsed halconfig next to it in a format that's much cheaper to read than YAML.
+ *
+ * The copy records the SHA-256 of the YAML it was parsed from, and the version of Halyard that parsed it. It's only
+ * used when both still match, so hand edits to the halconfig or a Halyard upgrade fall back to parsing the YAML, which
+ * then replaces the copy.
+ */
+@Slf4j
+@Component
+public class HalconfigCache {
+  @Getter
+  @Value("${halconfig.cache.enabled:true}")
+  boolean enabled;
+
+  @Autowired
+  String halconfigPath;
+
+  @Autowired
+  String halyardVersion;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private Path getCachePath() {
+    return Paths.get(halconfigPath).resolveSibling(".config.cache");
+  }
+
+  /**
+   * @param yaml is the contents of the halconfig.
+   * @return the halconfig parsed from those contents, or null if the cache doesn't hold them.
+   */
+  Halconfig load(byte[] yaml) {
+    String digest = digest(yaml);
+    try (InputStream is = Files.newInputStream(getCachePath());
+         JsonParser parser = objectMapper.getFactory().createParser(is)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT
+          || !matches(parser, "version", halyardVersion)
+          || !matches(parser, "digest", digest)
+          || !"halconfig".equals(parser.nextFieldName())) {
+        return null;
+      }
+
+      parser.nextToken();
+      return objectMapper.readValue(parser, Halconfig.class);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      log.warn("Ignoring unreadable halconfig cache", e);
+      return null;
+    }
+  }
+
+  /**
+   * Replaces the cache with a halconfig and the contents it was parsed from or written as.
+   *
+   * @param yaml is the contents of the halconfig.
+   * @param halconfig is the halconfig those contents represent.
+   */
+  void store(byte[] yaml, Halconfig halconfig) {
+    Path cachePath = getCachePath();
+    Path tmpPath = cachePath.resolveSibling(cachePath.getFileName() + "." + UUID.randomUUID());
+    try {
+      try (OutputStream os = Files.newOutputStream(tmpPath);
+           JsonGenerator generator = objectMapper.getFactory().createGenerator(os, JsonEncoding.UTF8)) {
+        generator.writeStartObject();
+        generator.writeStringField("version", halyardVersion);
+        generator.writeStringField("digest", digest(yaml));
+        generator.writeFieldName("halconfig");
+        objectMapper.writeValue(generator, halconfig);
+        generator.writeEndObject();
+      }
+
+      Files.move(tmpPath, cachePath, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      log.warn("Failed to write the halconfig cache", e);
+      try {
+        Files.deleteIfExists(tmpPath);
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private boolean matches(JsonParser parser, String field, String expected) throws IOException {
+    if (!field.equals(parser.nextFieldName())) {
+      return false;
+    }
+
+    parser.nextToken();
+    return Objects.equals(parser.getValueAsString(), expected);
+  }
+
+  private static String digest(byte[] contents) {
+    try {
+      return DatatypeConverter.printHexBinary(MessageDigest.getInstance("SHA-256").digest(contents));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
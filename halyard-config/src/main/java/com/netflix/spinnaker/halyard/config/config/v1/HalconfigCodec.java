@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
+import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads and writes halconfig YAML by streaming it directly to and from the Node model.
+ *
+ * Unlike Yaml.load() followed by ObjectMapper.convertValue() (or the reverse when writing), no intermediate Map/List
+ * representation of the file is ever built. The YAML is emitted with the same block style as the "yamlParser" bean,
+ * and unknown fields are rejected with the same UnrecognizedPropertyException.
+ */
+public class HalconfigCodec {
+  private final ObjectMapper yamlMapper;
+
+  /**
+   * Leaves the deployments out of a halconfig.
+   */
+  private final ObjectMapper topLevelMapper;
+
+  public HalconfigCodec() {
+    YAMLFactory yamlFactory = new YAMLFactory()
+        .disable(YAMLGenerator.Feature.WRITE_DOC_START_MARKER)
+        .enable(YAMLGenerator.Feature.MINIMIZE_QUOTES);
+
+    this.yamlMapper = new ObjectMapper(yamlFactory);
+    this.topLevelMapper = yamlMapper.copy().addMixIn(Halconfig.class, WithoutDeployments.class);
+  }
+
+  /**
+   * @param is is the YAML to read.
+   * @param type is the type to bind the YAML to.
+   * @return the bound value, or null if the stream has no content.
+   */
+  public <T> T read(InputStream is, Class<T> type) throws IOException {
+    try (JsonParser parser = yamlMapper.getFactory().createParser(is)) {
+      if (parser.nextToken() == null) {
+        return null;
+      }
+
+      return yamlMapper.readValue(parser, type);
+    }
+  }
+
+  /**
+   * @param value is the value to serialize.
+   * @return the YAML representation of value.
+   */
+  public String write(Object value) throws IOException {
+    return yamlMapper.writeValueAsString(value);
+  }
+
+  /**
+   * @param is is the YAML to read.
+   * @return the YAML as a tree, or null if the stream has no content.
+   */
+  public JsonNode readTree(InputStream is) throws IOException {
+    return read(is, JsonNode.class);
+  }
+
+  /**
+   * @param value is the value to convert.
+   * @return the tree that value would be serialized as.
+   */
+  public JsonNode valueToTree(Object value) {
+    return yamlMapper.valueToTree(value);
+  }
+
+  /**
+   * @param halconfig is the halconfig to convert.
+   * @return the tree of the halconfig's top-level fields, without serializing any of its deployments.
+   */
+  public ObjectNode topLevelTree(Halconfig halconfig) {
+    return topLevelMapper.valueToTree(halconfig);
+  }
+
+  /**
+   * @param tree is the tree to bind.
+   * @param type is the type to bind the tree to.
+   * @return the bound value.
+   */
+  public <T> T treeToValue(JsonNode tree, Class<T> type) throws IOException {
+    return yamlMapper.treeToValue(tree, type);
+  }
+
+  @JsonIgnoreProperties("deploymentConfigurations")
+  private abstract static class WithoutDeployments {
+  }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.netflix.spinnaker.halyard.config.model.v1.node.DeploymentConfiguration;
+import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeDiff;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeHashes;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An append-only log of changes made to the halconfig since it was last written in full.
+ *
+ * Each saved mutation is appended as a single line of JSON listing the values it set or removed, and is fsync'd before
+ * the write is acknowledged. Only the deployments whose content hashes changed are serialized and compared, so the
+ * cost of a write depends on the size of the deployments it changed rather than of the halconfig.
+ * The journal is periodically compacted by writing the halconfig in full and truncating the journal. When the
+ * halconfig is read, the journal is replayed on top of it.
+ *
+ * Every change is recorded as an absolute value at a path, so replaying the journal on top of a halconfig that already
+ * includes some of its changes (for example after a crash during compaction) gives the same result.
+ *
+ * @see HalconfigParser
+ */
+@Slf4j
+@Component
+public class HalconfigJournal {
+  private static final String DEPLOYMENTS_FIELD = "deploymentConfigurations";
+
+  @Getter
+  @Value("${halconfig.journal.enabled:false}")
+  boolean enabled;
+
+  @Getter
+  @Value("${halconfig.journal.compactionIntervalSeconds:60}")
+  long compactionIntervalSeconds;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Autowired
+  String halconfigPath;
+
+  private Path getJournalPath() {
+    return Paths.get(halconfigPath + ".journal");
+  }
+
+  /**
+   * @return the number of bytes in the journal, or 0 if there is no journal.
+   */
+  long length() throws IOException {
+    try {
+      return Files.size(getJournalPath());
+    } catch (NoSuchFileException e) {
+      return 0;
+    }
+  }
+
+  boolean isEmpty() throws IOException {
+    return length() == 0;
+  }
+
+  /**
+   * Durably records the changes needed to turn one halconfig into another.
+   *
+   * @param codec serializes the parts of the halconfigs that are compared.
+   * @param before is the halconfig the changes were made against.
+   * @param beforeHashes are the content hashes of before.
+   * @param after is the halconfig with the changes applied.
+   * @param afterHashes are the content hashes of after.
+   */
+  void append(HalconfigCodec codec, Halconfig before, NodeHashes beforeHashes, Halconfig after, NodeHashes afterHashes) throws IOException {
+    ArrayNode changes = objectMapper.createArrayNode();
+    List<String> path = new ArrayList<>();
+    diff(path, codec.topLevelTree(before), codec.topLevelTree(after), changes);
+
+    List<String> names = after.getDeploymentNames();
+    if (!names.equals(before.getDeploymentNames())) {
+      // Deployments were added, removed, or reordered, so the whole list is replaced. Later records are diffed against
+      // bound deployments, so they're recorded the way they serialize once bound.
+      after.bindDeployments();
+      changes.add(change("set", path, DEPLOYMENTS_FIELD, codec.valueToTree(after).get(DEPLOYMENTS_FIELD)));
+    } else {
+      path.add(DEPLOYMENTS_FIELD);
+      for (int i = 0; i < names.size(); i++) {
+        if (NodeDiff.deploymentDiffers(before, beforeHashes, i, after, afterHashes, i)) {
+          path.add(Integer.toString(i));
+          diff(path,
+              codec.valueToTree(before.getDeploymentConfigurations().get(i)),
+              codec.valueToTree(after.getDeploymentConfigurations().get(i)),
+              changes);
+          path.remove(path.size() - 1);
+        }
+      }
+    }
+
+    if (changes.size() == 0) {
+      return;
+    }
+
+    ObjectNode record = objectMapper.createObjectNode();
+    record.set("changes", changes);
+    byte[] line = (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+
+    try (FileChannel channel = FileChannel.open(getJournalPath(), CREATE, READ, WRITE)) {
+      // A record torn by a crash mid-append would otherwise have this one glued onto it.
+      long end = completeLength(channel);
+      if (end < channel.size()) {
+        log.warn("Discarding incomplete record at the end of the halconfig journal");
+        channel.truncate(end);
+      }
+
+      ByteBuffer buffer = ByteBuffer.wrap(line);
+      long position = end;
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+
+      channel.force(false);
+    }
+  }
+
+  /**
+   * Applies every complete record in the journal to the given halconfig.
+   *
+   * Changes to a deployment were diffed against it as it serializes once bound, defaults included, so only the
+   * deployments they touch are bound before the changes are applied. The rest are carried over as they were read.
+   *
+   * @param codec converts the halconfig to and from the tree the changes are applied to.
+   * @param halconfig is the halconfig the journal was written against.
+   * @return the halconfig with every change applied.
+   */
+  Halconfig replay(HalconfigCodec codec, Halconfig halconfig) throws IOException {
+    List<JsonNode> changes = readChanges();
+    if (changes.isEmpty()) {
+      return halconfig;
+    }
+
+    List<DeploymentConfiguration> deployments = halconfig.getDeploymentConfigurations();
+    for (JsonNode change : changes) {
+      JsonNode path = change.get("path");
+      if (!DEPLOYMENTS_FIELD.equals(path.get(0).asText())) {
+        continue;
+      } else if (path.size() == 1) {
+        // Every later change is to the replacement list, which was recorded with its deployments bound.
+        break;
+      }
+
+      int index = Integer.parseInt(path.get(1).asText());
+      if (index < deployments.size()) {
+        // Getting the deployment binds it.
+        deployments.get(index);
+      }
+    }
+
+    JsonNode tree = codec.valueToTree(halconfig);
+    for (JsonNode change : changes) {
+      apply(tree, change);
+    }
+
+    return codec.treeToValue(tree, Halconfig.class);
+  }
+
+  /**
+   * Reads the changes in every complete record in the journal, in order.
+   *
+   * A record that was only partially written (the daemon died while appending it) was never acknowledged, so it's
+   * discarded from the journal rather than applied.
+   */
+  private List<JsonNode> readChanges() throws IOException {
+    List<JsonNode> result = new ArrayList<>();
+    byte[] contents;
+    try {
+      contents = Files.readAllBytes(getJournalPath());
+    } catch (NoSuchFileException e) {
+      return result;
+    }
+
+    int end = contents.length;
+    while (end > 0 && contents[end - 1] != '\n') {
+      end--;
+    }
+
+    if (end < contents.length) {
+      log.warn("Discarding incomplete record at the end of the halconfig journal");
+      try (FileChannel channel = FileChannel.open(getJournalPath(), WRITE)) {
+        channel.truncate(end);
+        channel.force(true);
+      }
+    }
+
+    for (String line : new String(contents, 0, end, StandardCharsets.UTF_8).split("\n")) {
+      if (line.isEmpty()) {
+        continue;
+      }
+
+      JsonNode record = objectMapper.readTree(line);
+      record.get("changes").forEach(result::add);
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the length of the journal up to the end of its last complete record.
+   */
+  private static long completeLength(FileChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    long end = channel.size();
+    while (end > 0) {
+      long start = Math.max(0, end - buffer.capacity());
+      buffer.clear().limit((int) (end - start));
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, start + buffer.position()) < 0) {
+          break;
+        }
+      }
+
+      for (int i = (int) (end - start) - 1; i >= 0; i--) {
+        if (buffer.get(i) == '\n') {
+          return start + i + 1;
+        }
+      }
+
+      end = start;
+    }
+
+    return 0;
+  }
+
+  /**
+   * Discards every record in the journal, to be called once the halconfig has been written in full.
+   */
+  void truncate() throws IOException {
+    if (Files.exists(getJournalPath())) {
+      try (FileChannel channel = FileChannel.open(getJournalPath(), WRITE)) {
+        channel.truncate(0);
+        channel.force(true);
+      }
+    }
+  }
+
+  /**
+   * Records the changes between two trees as a list of "set" and "remove" operations. Objects are compared field by
+   * field, and lists element by element as long as their size is unchanged; anything else is replaced outright.
+   */
+  private void diff(List<String> path, JsonNode before, JsonNode after, ArrayNode changes) {
+    if (before.equals(after)) {
+      return;
+    }
+
+    if (before.isObject() && after.isObject()) {
+      Iterator<String> removed = before.fieldNames();
+      while (removed.hasNext()) {
+        String field = removed.next();
+        if (!after.has(field)) {
+          changes.add(change("remove", path, field, null));
+        }
+      }
+
+      Iterator<String> fields = after.fieldNames();
+      while (fields.hasNext()) {
+        String field = fields.next();
+        if (before.has(field)) {
+          path.add(field);
+          diff(path, before.get(field), after.get(field), changes);
+          path.remove(path.size() - 1);
+        } else {
+          changes.add(change("set", path, field, after.get(field)));
+        }
+      }
+    } else if (before.isArray() && after.isArray() && before.size() == after.size()) {
+      for (int i = 0; i < after.size(); i++) {
+        path.add(Integer.toString(i));
+        diff(path, before.get(i), after.get(i), changes);
+        path.remove(path.size() - 1);
+      }
+    } else if (path.isEmpty()) {
+      throw new IllegalArgumentException("The root of the halconfig must be an object");
+    } else {
+      List<String> parent = path.subList(0, path.size() - 1);
+      changes.add(change("set", parent, path.get(path.size() - 1), after));
+    }
+  }
+
+  private ObjectNode change(String op, List<String> path, String key, JsonNode value) {
+    ObjectNode change = objectMapper.createObjectNode();
+    change.put("op", op);
+    ArrayNode fullPath = change.putArray("path");
+    path.forEach(fullPath::add);
+    fullPath.add(key);
+    if (value != null) {
+      change.set("value", value);
+    }
+
+    return change;
+  }
+
+  /**
+   * Applies a single change. Changes to a path that no longer exists are skipped, since a later change in the journal
+   * must have replaced its parent.
+   */
+  private void apply(JsonNode root, JsonNode change) {
+    JsonNode path = change.get("path");
+    JsonNode parent = root;
+    for (int i = 0; i < path.size() - 1 && parent != null; i++) {
+      parent = child(parent, path.get(i).asText());
+    }
+
+    String key = path.get(path.size() - 1).asText();
+    boolean set = "set".equals(change.get("op").asText());
+    if (parent instanceof ObjectNode) {
+      if (set) {
+        ((ObjectNode) parent).set(key, change.get("value"));
+      } else {
+        ((ObjectNode) parent).remove(key);
+      }
+    } else if (parent instanceof ArrayNode && set) {
+      int index = Integer.parseInt(key);
+      if (index < parent.size()) {
+        ((ArrayNode) parent).set(index, change.get("value"));
+      }
+    } else {
+      log.debug("Skipping journaled change to missing path " + path);
+    }
+  }
+
+  private JsonNode child(JsonNode node, String key) {
+    if (node.isArray()) {
+      return node.get(Integer.parseInt(key));
+    } else {
+      return node.get(key);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+/**
+ * How the halconfig is laid out on disk.
+ */
+public enum HalconfigLayout {
+  /**
+   * Everything is stored in ~/.hal/config.
+   */
+  SINGLE_FILE,
+
+  /**
+   * Each deployment is stored in its own file under ~/.hal/config.d, and ~/.hal/config only holds the top-level fields
+   * along with an index of those deployments.
+   *
+   * @see HalconfigShards
+   */
+  SHARDED,
+}
@@ -16,22 +16,51 @@
 
 package com.netflix.spinnaker.halyard.config.config.v1;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
 import com.netflix.spinnaker.halyard.config.errors.v1.HalconfigException;
 import com.netflix.spinnaker.halyard.config.errors.v1.config.ParseConfigException;
+import com.netflix.spinnaker.halyard.config.errors.v1.config.StaleConfigException;
+import com.netflix.spinnaker.halyard.config.model.v1.node.DeploymentConfiguration;
 import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeDiff;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeHashes;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeIndex;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.Problem;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemBuilder;
+import lombok.Data;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.parser.ParserException;
 import org.yaml.snakeyaml.scanner.ScannerException;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A parser for all Config read by Halyard at runtime.
@@ -40,10 +69,23 @@ import java.util.Map;
  *
  * Since we aren't relying on SpringBoot to configure Halyard's ~/.hal/config, we instead use this class as a utility
  * method to read ~/.hal/config's contents.
+ *
+ * The halconfig is handed out as a series of read-only snapshots (@see HalconfigSnapshot). Readers never block, and
+ * never see changes that are still being staged: a writer first calls beginChanges() to get a private copy of the
+ * current snapshot, and saveConfig() publishes that copy as the next generation only if no other writer got there first.
+ *
+ * When the halconfig journal is enabled (@see HalconfigJournal), saved changes are appended to the journal instead of
+ * rewriting the halconfig, and the journal is compacted back into the halconfig in the background.
+ *
+ * The halconfig can also be sharded (@see HalconfigShards), in which case a write only touches the files of the
+ * deployments it changed, and concurrent writes to different deployments are rebased on top of each other rather than
+ * rejected.
  */
 @Slf4j
 @Component
 public class HalconfigParser {
+  private static final String DEPLOYMENTS_FIELD = "deploymentConfigurations";
+
   @Autowired
   String halconfigPath;
 
@@ -53,10 +95,54 @@ public class HalconfigParser {
   @Autowired
   ObjectMapper objectMapper;
 
-  @Autowired
-  Yaml yamlParser;
+  @Autowired(required = false)
+  HalconfigJournal halconfigJournal;
+
+  @Autowired(required = false)
+  HalconfigCache halconfigCache;
+
+  @Autowired(required = false)
+  HalconfigWatcher halconfigWatcher;
+
+  @Autowired(required = false)
+  HalconfigShards halconfigShards;
+
+  private final HalconfigCodec halconfigCodec = new HalconfigCodec();
+
+  /**
+   * The most recently published halconfig.
+   */
+  private final AtomicReference<HalconfigSnapshot> snapshot = new AtomicReference<>();
+
+  /**
+   * Generations are handed to clients as ETags, so they start from the wall clock to keep increasing across restarts
+   * rather than repeating a generation an old client may still be holding on to.
+   */
+  private final AtomicLong generations = new AtomicLong(System.currentTimeMillis());
+
+  /**
+   * Changes being staged by the current thread, if any.
+   */
+  private final ThreadLocal<StagedChanges> stagedChanges = new ThreadLocal<>();
+
+  /**
+   * A snapshot the current thread has asked to keep reading from, if any.
+   */
+  private final ThreadLocal<HalconfigSnapshot> pinnedSnapshot = new ThreadLocal<>();
+
+  private ScheduledExecutorService compactor;
+
+  /**
+   * # of reloads served without re-parsing the halconfig.
+   */
+  @Getter
+  private final AtomicLong parseCacheHits = new AtomicLong();
 
-  static Halconfig halconfig;
+  /**
+   * # of reloads that required parsing the halconfig.
+   */
+  @Getter
+  private final AtomicLong parseCacheMisses = new AtomicLong();
 
   /**
    * Parse Halyard's config.
@@ -65,13 +151,8 @@ public class HalconfigParser {
    * @param is is the input stream to read from.
    * @return the fully parsed halconfig.
    */
-  Halconfig parseHalconfig(InputStream is) throws UnrecognizedPropertyException {
-    try {
-      Object obj = yamlParser.load(is);
-      return objectMapper.convertValue(obj, Halconfig.class);
-    } catch (IllegalArgumentException e) {
-      throw (UnrecognizedPropertyException) e.getCause();
-    }
+  Halconfig parseHalconfig(InputStream is) throws IOException {
+    return halconfigCodec.read(is, Halconfig.class);
   }
 
   public InputStream getHalconfigStream() throws FileNotFoundException {
@@ -81,30 +162,256 @@ public class HalconfigParser {
   /**
    * Returns the current halconfig stored at the halconfigPath.
    *
+   * If the current thread is staging changes, this is the halconfig with those changes applied. Otherwise it's the
+   * halconfig of the current (or pinned) snapshot, and must not be modified.
+   *
    * @see Halconfig
    * @param reload if we should check the disk for the halconfig.
    * @return the fully parsed halconfig.
    */
   public Halconfig getHalconfig(boolean reload) {
-    Halconfig res = null;
+    StagedChanges changes = stagedChanges.get();
+    if (changes != null) {
+      return transformHalconfig(changes.getHalconfig());
+    }
 
-    if (!reload && halconfig != null) {
-      res = halconfig;
+    HalconfigSnapshot current = snapshot.get();
+    if (!reload && current != null && pinnedSnapshot.get() == null) {
+      return current.getHalconfig();
+    }
+
+    return getSnapshot().getHalconfig();
+  }
+
+  /**
+   * Returns the snapshot this thread is reading from: the pinned snapshot if there is one, otherwise the most recently
+   * published snapshot, reloaded from disk if the halconfig changed since it was read.
+   *
+   * @return the current snapshot.
+   */
+  public HalconfigSnapshot getSnapshot() {
+    HalconfigSnapshot pinned = pinnedSnapshot.get();
+    if (pinned != null) {
+      return pinned;
+    }
+
+    return getLatestSnapshot();
+  }
+
+  /**
+   * Returns the node index of the snapshot this thread is reading from.
+   *
+   * @return the index, or null if the current thread is staging changes, since those can't be indexed ahead of time.
+   */
+  public NodeIndex getNodeIndex() {
+    if (stagedChanges.get() != null) {
+      return null;
+    }
+
+    return getSnapshot().getNodeIndex();
+  }
+
+  /**
+   * Returns the content hashes of the snapshot this thread is reading from.
+   *
+   * @return the snapshot's hashes, or fresh hashes if the current thread is staging changes, since those can change
+   * between calls. These are backed by the hashes of the snapshot the changes are staged against, which already cover
+   * every deployment the changes haven't bound.
+   */
+  public NodeHashes getNodeHashes() {
+    StagedChanges changes = stagedChanges.get();
+    if (changes != null) {
+      return new NodeHashes(changes.getBase().getNodeHashes());
+    }
+
+    return getSnapshot().getNodeHashes();
+  }
+
+  /**
+   * Returns the snapshot the current thread's staged changes were made against.
+   *
+   * @return the snapshot, or null if the current thread isn't staging changes.
+   */
+  public HalconfigSnapshot getStagedChangesBase() {
+    StagedChanges changes = stagedChanges.get();
+    return changes != null ? changes.getBase() : null;
+  }
+
+  private HalconfigSnapshot getLatestSnapshot() {
+    HalconfigSnapshot current = snapshot.get();
+    if (current != null && halconfigWatcher != null && !halconfigWatcher.pollChanged()) {
+      parseCacheHits.incrementAndGet();
+      return current;
+    }
+
+    return reloadSnapshot();
+  }
+
+  /**
+   * Like getLatestSnapshot(), but always checks the halconfig on disk, even if no change to it was observed yet.
+   */
+  private HalconfigSnapshot reloadSnapshot() {
+    HalconfigSnapshot current = snapshot.get();
+    HalconfigStat stat = statHalconfig(shardNames(current));
+    if (stat != null && current != null && stat.equals(current.getStat())) {
+      parseCacheHits.incrementAndGet();
+      return current;
+    }
+
+    parseCacheMisses.incrementAndGet();
+    HalconfigSnapshot loaded = loadSnapshot(stat);
+    if (snapshot.compareAndSet(current, loaded)) {
+      return loaded;
     } else {
-      try {
-        InputStream is = getHalconfigStream();
-        res = parseHalconfig(is);
+      // Someone else published a snapshot while we were reading the file, theirs is at least as recent as ours.
+      return snapshot.get();
+    }
+  }
+
+  /**
+   * Keeps all reads made by the current thread on the current snapshot until unpinSnapshot() is called.
+   */
+  public void pinSnapshot() {
+    pinnedSnapshot.set(getLatestSnapshot());
+  }
+
+  public void unpinSnapshot() {
+    pinnedSnapshot.remove();
+  }
+
+  /**
+   * Reads the halconfig in whichever layout it's stored in. Its deployments are only bound once they're needed, so a
+   * mistake in a deployment is reported by the first request that needs it.
+   *
+   * @param stat is the state of the halconfig on disk before it's read.
+   */
+  private HalconfigSnapshot loadSnapshot(HalconfigStat stat) {
+    try {
+      ObjectNode index = sharding() ? halconfigShards.readIndex() : null;
+      if (index != null) {
+        Map<String, HalconfigStat> shardStats = new HashMap<>();
+        Halconfig halconfig = transformHalconfig(readShards(index, shardStats));
+        HalconfigStat shardedStat = stat != null ? stat.withShards(shardStats) : null;
+        return new HalconfigSnapshot(generations.incrementAndGet(), halconfig, shardedStat, HalconfigLayout.SHARDED);
+      }
+
+      Halconfig halconfig = transformHalconfig(loadHalconfig());
+      return new HalconfigSnapshot(generations.incrementAndGet(), halconfig, stat, HalconfigLayout.SINGLE_FILE);
+    } catch (UnrecognizedPropertyException e) {
+      throw new ParseConfigException(e);
+    } catch (JsonProcessingException e) {
+      throw new ParseConfigException(e);
+    } catch (ParserException e) {
+      throw new ParseConfigException(e);
+    } catch (ScannerException e) {
+      throw new ParseConfigException(e);
+    } catch (IOException e) {
+      throw new HalconfigException(
+          new ProblemBuilder(Problem.Severity.FATAL,
+              "Failure reading your halconfig from path \"" + halconfigPath + "\": " + e.getMessage()).build()
+      );
+    }
+  }
+
+  /**
+   * Reads a halconfig stored in a single file, replaying its journal if there is one.
+   */
+  private Halconfig loadHalconfig() throws IOException {
+    Halconfig compacted = readHalconfig();
+    if (!journaling() || halconfigJournal.isEmpty()) {
+      return compacted;
+    }
+
+    if (compacted == null) {
+      compacted = new Halconfig();
+    }
+
+    return halconfigJournal.replay(halconfigCodec, compacted);
+  }
+
+  /**
+   * Reads every deployment listed in the index of a sharded halconfig.
+   *
+   * @param index is the top-level halconfig, including its index.
+   * @param shardStats records the attributes of each deployment's file.
+   */
+  private Halconfig readShards(ObjectNode index, Map<String, HalconfigStat> shardStats) throws IOException {
+    JsonNode names = index.remove(HalconfigShards.INDEX_FIELD);
+    ArrayNode deployments = index.putArray(DEPLOYMENTS_FIELD);
+    for (JsonNode name : names) {
+      deployments.add(halconfigShards.read(name.asText(), shardStats));
+    }
+
+    return halconfigCodec.treeToValue(index, Halconfig.class);
+  }
+
+  /**
+   * Reads the halconfig as it was last written in full, from the cache if it holds the same contents.
+   *
+   * @return the halconfig, or null if there is none.
+   */
+  private Halconfig readHalconfig() throws IOException {
+    if (!caching()) {
+      try (InputStream is = getHalconfigStream()) {
+        return parseHalconfig(is);
       } catch (FileNotFoundException e) {
-      } catch (UnrecognizedPropertyException e) {
-        throw new ParseConfigException(e);
-      } catch (ParserException e) {
-        throw new ParseConfigException(e);
-      } catch (ScannerException e) {
-        throw new ParseConfigException(e);
+        return null;
       }
     }
 
-    return transformHalconfig(res);
+    byte[] contents;
+    try {
+      contents = Files.readAllBytes(Paths.get(halconfigPath));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+
+    Halconfig halconfig = halconfigCache.load(contents);
+    if (halconfig == null) {
+      halconfig = parseHalconfig(new ByteArrayInputStream(contents));
+      if (halconfig != null) {
+        halconfigCache.store(contents, halconfig);
+      }
+    }
+
+    return halconfig;
+  }
+
+  /**
+   * Reads the attributes identifying the current contents of the halconfig on disk.
+   *
+   * @param shardNames are the deployments stored in their own files, or null if the halconfig isn't sharded.
+   * @return the halconfig's attributes, or null if they can't be read.
+   */
+  private HalconfigStat statHalconfig(Collection<String> shardNames) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(Paths.get(halconfigPath), BasicFileAttributes.class);
+      long journalLength = journaling() ? halconfigJournal.length() : 0;
+      HalconfigStat stat = new HalconfigStat(attributes.lastModifiedTime().toMillis(), attributes.size(), attributes.fileKey(), journalLength, null);
+      if (shardNames == null || !sharding()) {
+        return stat;
+      }
+
+      Map<String, HalconfigStat> shards = new HashMap<>();
+      for (String name : shardNames) {
+        shards.put(name, halconfigShards.stat(name));
+      }
+
+      return stat.withShards(shards);
+    } catch (NoSuchFileException e) {
+      return HalconfigStat.MISSING;
+    } catch (IOException e) {
+      log.warn("Unable to read the attributes of your halconfig, it will be reparsed", e);
+      return null;
+    }
+  }
+
+  private static Collection<String> shardNames(HalconfigSnapshot snapshot) {
+    if (snapshot == null || snapshot.getStat() == null || snapshot.getStat().getShards() == null) {
+      return null;
+    }
+
+    return snapshot.getStat().getShards().keySet();
   }
 
   Halconfig transformHalconfig(Halconfig halconfig) {
@@ -116,23 +423,58 @@ public class HalconfigParser {
     halconfig.parentify();
     halconfig.setPath(halconfigPath);
 
-    this.halconfig = halconfig;
-
     return halconfig;
   }
 
+  /**
+   * Starts staging changes on the current thread against a private copy of the current snapshot. Until they are saved,
+   * the changes are only visible to this thread.
+   */
+  public void beginChanges() {
+    beginChanges(null);
+  }
+
+  /**
+   * Starts staging changes as above, but only if the halconfig is still at the generation the caller last read, and
+   * only saves them if it still is at that point. Unlike unconditional changes, these are never rebased.
+   *
+   * @param expectedGeneration is the generation the caller last read, or null to accept any generation.
+   */
+  public void beginChanges(Long expectedGeneration) {
+    HalconfigSnapshot base = getLatestSnapshot();
+    checkGeneration(expectedGeneration, base);
+    // Deployments are only copied once the changes bind them.
+    Halconfig copy = base.getHalconfig().copy();
+    stagedChanges.set(new StagedChanges(base, transformHalconfig(copy), expectedGeneration));
+  }
+
+  private static void checkGeneration(Long expectedGeneration, HalconfigSnapshot snapshot) {
+    if (expectedGeneration != null && expectedGeneration != snapshot.getGeneration()) {
+      throw new StaleConfigException(
+          new ProblemBuilder(Problem.Severity.FATAL,
+              "Your halconfig has changed since generation " + expectedGeneration + " was read, it is now at generation "
+                  + snapshot.getGeneration() + ".")
+              .setRemediation("Reload your halconfig and retry your request.")
+              .build()
+      );
+    }
+  }
+
   /**
    * Undoes changes to the staged in-memory halconfig.
    */
   public void undoChanges() {
-    halconfig = null;
+    stagedChanges.remove();
   }
 
   /**
-   * Write your halconfig object to the halconfigPath.
+   * Write your halconfig object to the halconfigPath, and publish it as the next snapshot.
+   *
+   * @return the published snapshot.
    */
-  public void saveConfig() {
-    if (halconfig == null) {
+  public HalconfigSnapshot saveConfig() {
+    StagedChanges changes = stagedChanges.get();
+    if (changes == null) {
       throw new HalconfigException(
           new ProblemBuilder(Problem.Severity.WARNING,
               "No halconfig changes have been made, nothing to write")
@@ -140,21 +482,396 @@ public class HalconfigParser {
       );
     }
 
+    try {
+      // Only writers are serialized here, readers never wait on this lock.
+      synchronized (this) {
+        HalconfigSnapshot base = changes.getBase();
+        HalconfigSnapshot latest = reloadSnapshot();
+        checkGeneration(changes.getExpectedGeneration(), latest);
+        Halconfig halconfig = changes.getHalconfig();
+        if (latest.getGeneration() != base.getGeneration()) {
+          halconfig = rebase(base, latest, halconfig);
+        }
+
+        Collection<String> shardNames = null;
+        if (latest.getLayout() == HalconfigLayout.SHARDED) {
+          shardNames = writeShards(latest.getHalconfig(), latest.getNodeHashes(), halconfig, new NodeHashes(latest.getNodeHashes()));
+        } else if (!journaling() || !journalHalconfig(latest, halconfig)) {
+          writeHalconfig(halconfig);
+        }
+
+        HalconfigSnapshot next = new HalconfigSnapshot(generations.incrementAndGet(), halconfig, statHalconfig(shardNames), latest.getLayout());
+        publish(latest, next);
+        return next;
+      }
+    } finally {
+      stagedChanges.remove();
+    }
+  }
+
+  /**
+   * Applies changes staged against one snapshot on top of a later snapshot, as long as the two sets of changes touched
+   * different deployments, and at most one of them touched the top-level fields or added or removed deployments.
+   * Deployments are compared by their content hashes, and none of them are bound or serialized.
+   *
+   * @return the halconfig with both sets of changes.
+   */
+  private Halconfig rebase(HalconfigSnapshot base, HalconfigSnapshot latest, Halconfig staged) {
+    Halconfig baseHalconfig = base.getHalconfig();
+    Halconfig theirs = latest.getHalconfig();
+    NodeHashes baseHashes = base.getNodeHashes();
+    NodeHashes theirHashes = latest.getNodeHashes();
+    NodeHashes ourHashes = new NodeHashes(baseHashes);
+
+    Map<String, Integer> baseIndexes = indexesByName(baseHalconfig);
+    Map<String, Integer> theirIndexes = indexesByName(theirs);
+    Map<String, Integer> ourIndexes = indexesByName(staged);
+    if (baseIndexes == null || theirIndexes == null || ourIndexes == null) {
+      throw conflictingChanges();
+    }
+
+    boolean oursTop = topDiffers(baseHalconfig, staged);
+    if (oursTop && topDiffers(baseHalconfig, theirs)) {
+      throw conflictingChanges();
+    }
+
+    Set<String> oursChanged = changedDeployments(baseHalconfig, baseHashes, baseIndexes, staged, ourHashes, ourIndexes);
+    Set<String> theirsChanged = changedDeployments(baseHalconfig, baseHashes, baseIndexes, theirs, theirHashes, theirIndexes);
+    if (!Collections.disjoint(oursChanged, theirsChanged)) {
+      throw conflictingChanges();
+    }
+
+    Halconfig order = oursTop ? staged : theirs;
+    Halconfig merged = order.copyWithoutDeployments();
+    for (String name : order.getDeploymentNames()) {
+      if (oursChanged.contains(name)) {
+        merged.addDeploymentCopy(staged, ourIndexes.get(name));
+      } else {
+        merged.addDeploymentCopy(theirs, theirIndexes.get(name));
+      }
+    }
+
+    return transformHalconfig(merged);
+  }
+
+  /**
+   * @return true iff the top-level fields or the list of deployments differ.
+   */
+  private boolean topDiffers(Halconfig from, Halconfig to) {
+    return !halconfigCodec.topLevelTree(from).equals(halconfigCodec.topLevelTree(to))
+        || !from.getDeploymentNames().equals(to.getDeploymentNames());
+  }
+
+  /**
+   * @return the names of the deployments that were added, removed, or changed.
+   */
+  private static Set<String> changedDeployments(Halconfig from, NodeHashes fromHashes, Map<String, Integer> fromIndexes,
+      Halconfig to, NodeHashes toHashes, Map<String, Integer> toIndexes) {
+    Set<String> names = new HashSet<>(fromIndexes.keySet());
+    names.addAll(toIndexes.keySet());
+
+    Set<String> result = new HashSet<>();
+    for (String name : names) {
+      Integer fromIndex = fromIndexes.get(name);
+      Integer toIndex = toIndexes.get(name);
+      if (fromIndex == null || toIndex == null
+          || NodeDiff.deploymentDiffers(from, fromHashes, fromIndex, to, toHashes, toIndex)) {
+        result.add(name);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Deployments sharing a name can't be told apart, and so can't be compared or stored separately.
+   *
+   * @return the index of each deployment by name, or null if two deployments share a name.
+   */
+  private static Map<String, Integer> indexesByName(Halconfig halconfig) {
+    List<String> names = halconfig.getDeploymentNames();
+    Map<String, Integer> result = new HashMap<>();
+    for (int i = 0; i < names.size(); i++) {
+      if (result.put(names.get(i), i) != null) {
+        return null;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes the files of a sharded halconfig that differ from the previous halconfig. Deployments are compared by their
+   * content hashes, so only the deployments that changed are serialized.
+   *
+   * @param previous is the halconfig currently on disk, or null to write every file.
+   * @param previousHashes are the content hashes of previous.
+   * @param halconfig is the halconfig to write.
+   * @param hashes are the content hashes of halconfig.
+   * @return the names of the deployments now stored in their own files.
+   */
+  private List<String> writeShards(Halconfig previous, NodeHashes previousHashes, Halconfig halconfig, NodeHashes hashes) {
+    List<String> names = halconfig.getDeploymentNames();
+    if (indexesByName(halconfig) == null) {
+      throw new HalconfigException(
+          new ProblemBuilder(Problem.Severity.FATAL,
+              "Every deployment must have a unique name to be stored in its own file").build()
+      );
+    }
+
+    Map<String, Integer> previousIndexes = previous != null ? indexesByName(previous) : null;
+    List<DeploymentConfiguration> deployments = halconfig.getDeploymentConfigurations();
+    AtomicFileBatch batch = new AtomicFileBatch();
+    try {
+      // Shards are committed before the index that lists them, and only deleted once the index no longer does.
+      for (int i = 0; i < names.size(); i++) {
+        Integer previousIndex = previousIndexes != null ? previousIndexes.get(names.get(i)) : null;
+        if (previousIndex == null || NodeDiff.deploymentDiffers(previous, previousHashes, previousIndex, halconfig, hashes, i)) {
+          halconfigShards.write(batch, names.get(i), halconfigCodec.valueToTree(deployments.get(i)));
+        }
+      }
+
+      if (previousIndexes == null || topDiffers(previous, halconfig)) {
+        ObjectNode index = halconfigCodec.topLevelTree(halconfig);
+        ArrayNode indexNames = index.putArray(HalconfigShards.INDEX_FIELD);
+        names.forEach(indexNames::add);
+        halconfigShards.writeIndex(batch, index);
+      }
+
+      batch.commit();
+
+      if (previousIndexes != null) {
+        Set<String> kept = new HashSet<>(names);
+        for (String name : previousIndexes.keySet()) {
+          if (!kept.contains(name)) {
+            halconfigShards.delete(name);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new HalconfigException(
+          new ProblemBuilder(Problem.Severity.FATAL,
+              "Failure writing your halconfig to \"" + halconfigShards.getDirectory() + "\": " + e.getMessage()).build()
+      );
+    } finally {
+      batch.close();
+    }
+
+    return names;
+  }
+
+  /**
+   * Rewrites the current halconfig in a different layout.
+   *
+   * @param layout is the layout to migrate to.
+   */
+  public void setLayout(HalconfigLayout layout) {
+    setLayout(layout, null);
+  }
+
+  /**
+   * Rewrites the current halconfig in a different layout, but only if it's still at the generation the caller last
+   * read. The contents are unchanged, so the generation stays the same.
+   *
+   * @param layout is the layout to migrate to.
+   * @param expectedGeneration is the generation the caller last read, or null to accept any generation.
+   * @return the snapshot in the new layout.
+   */
+  public HalconfigSnapshot setLayout(HalconfigLayout layout, Long expectedGeneration) {
+    if (!sharding()) {
+      throw new HalconfigException(
+          new ProblemBuilder(Problem.Severity.FATAL,
+              "This daemon can't store your halconfig in any layout other than " + HalconfigLayout.SINGLE_FILE).build()
+      );
+    }
+
+    synchronized (this) {
+      HalconfigSnapshot current = reloadSnapshot();
+      checkGeneration(expectedGeneration, current);
+      if (current.getLayout() == layout) {
+        return current;
+      }
+
+      Collection<String> shardNames = null;
+      if (layout == HalconfigLayout.SHARDED) {
+        shardNames = writeShards(null, null, current.getHalconfig(), current.getNodeHashes());
+        try {
+          if (journaling()) {
+            halconfigJournal.truncate();
+          }
+        } catch (IOException e) {
+          log.warn("Failed to truncate the halconfig journal after sharding your halconfig", e);
+        }
+      } else {
+        writeHalconfig(current.getHalconfig());
+        halconfigShards.deleteAll();
+      }
+
+      // The contents are unchanged, only the files they are stored in are different.
+      HalconfigSnapshot migrated = new HalconfigSnapshot(current.getGeneration(), current.getHalconfig(), statHalconfig(shardNames), layout);
+      snapshot.compareAndSet(current, migrated);
+      return migrated;
+    }
+  }
+
+  public HalconfigLayout getLayout() {
+    return getSnapshot().getLayout();
+  }
+
+  /**
+   * Replaces the expected snapshot with the next one.
+   *
+   * A reader may have already reloaded the file we just wrote, in which case its copy is replaced as well. Anything
+   * else means the halconfig was changed behind our back.
+   */
+  private void publish(HalconfigSnapshot expected, HalconfigSnapshot next) {
+    HalconfigSnapshot current = expected;
+    while (!snapshot.compareAndSet(current, next)) {
+      current = snapshot.get();
+      if (next.getStat() == null || !Objects.equals(current.getStat(), next.getStat())) {
+        throw conflictingChanges();
+      }
+    }
+  }
+
+  /**
+   * Appends the changes made to the base snapshot to the journal.
+   *
+   * @return false if the changes couldn't be journaled, and the halconfig must be written in full instead.
+   */
+  private boolean journalHalconfig(HalconfigSnapshot base, Halconfig halconfig) {
+    if (base.getStat() == null || base.getStat() == HalconfigStat.MISSING) {
+      // There is no halconfig on disk to replay the journal on top of.
+      return false;
+    }
+
+    try {
+      halconfigJournal.append(halconfigCodec, base.getHalconfig(), base.getNodeHashes(), halconfig, new NodeHashes(base.getNodeHashes()));
+      return true;
+    } catch (IOException e) {
+      throw new HalconfigException(
+          new ProblemBuilder(Problem.Severity.FATAL,
+              "Failure writing your halconfig changes to the journal next to \"" + halconfigPath + "\": " + e.getMessage()).build()
+      );
+    }
+  }
+
+  /**
+   * Folds the journal back into the halconfig by writing the current snapshot in full.
+   */
+  public void compactJournal() {
+    if (!journaling()) {
+      return;
+    }
+
+    synchronized (this) {
+      try {
+        if (halconfigJournal.isEmpty()) {
+          return;
+        }
+      } catch (IOException e) {
+        log.warn("Unable to read the halconfig journal, skipping compaction", e);
+        return;
+      }
+
+      HalconfigSnapshot current = reloadSnapshot();
+      if (current.getLayout() != HalconfigLayout.SINGLE_FILE) {
+        return;
+      }
+
+      writeHalconfig(current.getHalconfig());
+
+      // The contents are unchanged, only the files they are stored in are different.
+      HalconfigSnapshot compacted = new HalconfigSnapshot(current.getGeneration(), current.getHalconfig(), statHalconfig(null), current.getLayout());
+      snapshot.compareAndSet(current, compacted);
+    }
+  }
+
+  @PostConstruct
+  void startCompaction() {
+    if (!journaling()) {
+      return;
+    }
+
+    compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "halconfig-compactor");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    long interval = halconfigJournal.getCompactionIntervalSeconds();
+    compactor.scheduleWithFixedDelay(() -> {
+      try {
+        compactJournal();
+      } catch (Exception e) {
+        log.warn("Failed to compact the halconfig journal", e);
+      }
+    }, interval, interval, TimeUnit.SECONDS);
+  }
+
+  @PreDestroy
+  void stopCompaction() {
+    if (compactor != null) {
+      compactor.shutdown();
+      compactJournal();
+    }
+  }
+
+  private boolean journaling() {
+    return halconfigJournal != null && halconfigJournal.isEnabled();
+  }
+
+  private boolean sharding() {
+    return halconfigShards != null;
+  }
+
+  private boolean caching() {
+    return halconfigCache != null && halconfigCache.isEnabled();
+  }
+
+  /**
+   * Writes the halconfig in full, which makes any journaled changes redundant.
+   */
+  private void writeHalconfig(Halconfig halconfig) {
     AtomicFileWriter writer = null;
     try {
+      String contents = halconfigCodec.write(halconfig);
       writer = new AtomicFileWriter(halconfigPath);
-      writer.write(yamlParser.dump(objectMapper.convertValue(halconfig, Map.class)));
+      writer.write(contents);
       writer.commit();
+
+      if (caching()) {
+        halconfigCache.store(contents.getBytes(StandardCharsets.UTF_8), halconfig);
+      }
+
+      if (journaling()) {
+        halconfigJournal.truncate();
+      }
     } catch (IOException e) {
       throw new HalconfigException(
           new ProblemBuilder(Problem.Severity.FATAL,
               "Failure writing your halconfig to path \"" + halconfigPath + "\"").build()
       );
     } finally {
-      halconfig = null;
       if (writer != null) {
         writer.close();
       }
     }
   }
+
+  private HalconfigException conflictingChanges() {
+    return new HalconfigException(
+        new ProblemBuilder(Problem.Severity.FATAL,
+            "Your halconfig was changed by another request while this one was being made, nothing was written")
+            .setRemediation("Retry your request.")
+            .build()
+    );
+  }
+
+  @Data
+  private static class StagedChanges {
+    final HalconfigSnapshot base;
+    final Halconfig halconfig;
+    final Long expectedGeneration;
+  }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores each deployment of a sharded halconfig in its own file, ~/.hal/config.d/[deployment].yml.
+ *
+ * In this layout ~/.hal/config holds the top-level fields, and lists the deployments under "deploymentShards" instead
+ * of "deploymentConfigurations". The halconfig is only read as sharded if both the index and the directory exist,
+ * which lets either migration be interrupted at any point without losing data: the directory is populated before the
+ * index is written, and the index is removed before the directory is.
+ *
+ * Each shard is written to its own file, so a change to one deployment never rewrites another, and the last read of
+ * each shard is kept until the shard changes on disk.
+ *
+ * @see HalconfigLayout#SHARDED
+ */
+@Slf4j
+@Component
+public class HalconfigShards {
+  static final String INDEX_FIELD = "deploymentShards";
+
+  @Autowired
+  String halconfigPath;
+
+  private final HalconfigCodec halconfigCodec = new HalconfigCodec();
+
+  private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+
+  Path getDirectory() {
+    return Paths.get(halconfigPath + ".d");
+  }
+
+  Path getShardPath(String name) {
+    try {
+      return getDirectory().resolve(URLEncoder.encode(name, "UTF-8") + ".yml");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads the top-level halconfig if it's sharded.
+   *
+   * @return the top-level fields, including the index, or null if the halconfig isn't sharded.
+   */
+  ObjectNode readIndex() throws IOException {
+    if (!Files.isDirectory(getDirectory())) {
+      return null;
+    }
+
+    JsonNode top;
+    try (InputStream is = Files.newInputStream(Paths.get(halconfigPath))) {
+      top = halconfigCodec.readTree(is);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+
+    if (top == null || !top.isObject() || !top.has(INDEX_FIELD)) {
+      return null;
+    }
+
+    return (ObjectNode) top;
+  }
+
+  /**
+   * Reads a deployment, reusing the last read of it if its file is unchanged.
+   *
+   * @param name is the name of the deployment.
+   * @param stats records the attributes of the file the deployment was read from.
+   * @return the serialized deployment.
+   */
+  JsonNode read(String name, Map<String, HalconfigStat> stats) throws IOException {
+    Path path = getShardPath(name);
+    HalconfigStat stat = stat(path);
+    Shard shard = shards.get(name);
+    if (shard == null || !shard.getStat().equals(stat)) {
+      JsonNode deployment;
+      try (InputStream is = Files.newInputStream(path)) {
+        deployment = halconfigCodec.readTree(is);
+      }
+
+      if (deployment == null) {
+        throw new IOException("The file storing deployment \"" + name + "\" is empty");
+      }
+
+      shard = new Shard(stat, deployment);
+      shards.put(name, shard);
+    }
+
+    stats.put(name, shard.getStat());
+    return shard.getDeployment();
+  }
+
+  void write(AtomicFileBatch batch, String name, JsonNode deployment) throws IOException {
+    batch.write(getShardPath(name), halconfigCodec.write(deployment));
+  }
+
+  void writeIndex(AtomicFileBatch batch, ObjectNode top) throws IOException {
+    batch.write(Paths.get(halconfigPath), halconfigCodec.write(top));
+  }
+
+  void delete(String name) throws IOException {
+    Files.deleteIfExists(getShardPath(name));
+    shards.remove(name);
+  }
+
+  void deleteAll() {
+    FileSystemUtils.deleteRecursively(getDirectory().toFile());
+    shards.clear();
+  }
+
+  HalconfigStat stat(String name) throws IOException {
+    return stat(getShardPath(name));
+  }
+
+  private HalconfigStat stat(Path path) throws IOException {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      return new HalconfigStat(attributes.lastModifiedTime().toMillis(), attributes.size(), attributes.fileKey(), 0, null);
+    } catch (NoSuchFileException e) {
+      return HalconfigStat.MISSING;
+    }
+  }
+
+  @Data
+  private static class Shard {
+    final HalconfigStat stat;
+    final JsonNode deployment;
+  }
+}
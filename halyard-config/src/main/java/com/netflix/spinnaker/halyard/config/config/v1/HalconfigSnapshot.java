@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeHashes;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeIndex;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * A published, read-only generation of the halconfig.
+ *
+ * Once published, a snapshot's halconfig is never modified. Readers can hold onto a snapshot for as long as they need
+ * a consistent view of the config, while writers stage their changes against a private copy and publish the result as
+ * a new snapshot with a higher generation.
+ *
+ * @see HalconfigParser
+ */
+public class HalconfigSnapshot {
+  /**
+   * Increases every time a new halconfig is published, either by a write or by reloading a changed file.
+   */
+  @Getter
+  final private long generation;
+
+  @Getter
+  final private Halconfig halconfig;
+
+  /**
+   * The state of the file this snapshot was read from or written to.
+   */
+  @Getter(AccessLevel.PACKAGE)
+  final private HalconfigStat stat;
+
+  /**
+   * How the halconfig this snapshot was read from or written to is laid out on disk.
+   */
+  @Getter
+  final private HalconfigLayout layout;
+
+  /**
+   * Since the snapshot's halconfig is never modified, its nodes can be indexed once and shared by every lookup.
+   */
+  @Getter
+  final private NodeIndex nodeIndex;
+
+  /**
+   * Content hashes of the snapshot's nodes, computed as they're asked for.
+   */
+  @Getter
+  final private NodeHashes nodeHashes = new NodeHashes();
+
+  HalconfigSnapshot(long generation, Halconfig halconfig, HalconfigStat stat, HalconfigLayout layout) {
+    this.generation = generation;
+    this.halconfig = halconfig;
+    this.stat = stat;
+    this.layout = layout;
+    this.nodeIndex = new NodeIndex(halconfig);
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * Identifies the contents of a file on disk without reading it.
+ */
+@Data
+class HalconfigStat {
+  /**
+   * Stands in for a file that doesn't exist (yet).
+   */
+  static final HalconfigStat MISSING = new HalconfigStat(-1, -1, null, 0, null);
+
+  final long lastModified;
+  final long size;
+  final Object fileKey;
+
+  /**
+   * Length of the halconfig's journal, which is only ever appended to between compactions.
+   *
+   * @see HalconfigJournal
+   */
+  final long journalLength;
+
+  /**
+   * Attributes of each deployment's file, keyed by deployment name, if the halconfig is sharded.
+   *
+   * @see HalconfigShards
+   */
+  final Map<String, HalconfigStat> shards;
+
+  HalconfigStat withShards(Map<String, HalconfigStat> shards) {
+    return new HalconfigStat(lastModified, size, fileKey, journalLength, shards);
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the directory holding the halconfig, so that the parser only needs to look at the halconfig on disk after
+ * it (or its journal) was changed.
+ *
+ * Until the watch is established, or if it's lost (for example because the directory was deleted), every call to
+ * pollChanged() reports a change, and the parser falls back to checking the file on every reload.
+ *
+ * The directory holding the deployments of a sharded halconfig is watched as well, from whenever it's created.
+ *
+ * Profiles in the per-deployment directories aren't watched: they're never held in memory, and are read from disk
+ * every time config is generated.
+ */
+@Slf4j
+@Component
+public class HalconfigWatcher {
+  @Value("${halconfig.watch.enabled:true}")
+  boolean enabled;
+
+  @Autowired
+  String halconfigPath;
+
+  private final AtomicBoolean changed = new AtomicBoolean(true);
+
+  private volatile boolean watching;
+
+  private WatchService watchService;
+
+  private Path shardDirectory;
+
+  @PostConstruct
+  void start() {
+    if (!enabled) {
+      return;
+    }
+
+    Path halconfigFile = Paths.get(halconfigPath);
+    Path directory = halconfigFile.getParent();
+    try {
+      Files.createDirectories(directory);
+      watchService = FileSystems.getDefault().newWatchService();
+      directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+      shardDirectory = Paths.get(halconfigPath + ".d");
+    } catch (IOException | UnsupportedOperationException e) {
+      log.warn("Unable to watch \"" + directory + "\" for changes, your halconfig will be checked on every request", e);
+      return;
+    }
+
+    String fileName = halconfigFile.getFileName().toString();
+    Thread thread = new Thread(() -> watch(fileName), "halconfig-watcher");
+    thread.setDaemon(true);
+    watching = true;
+    watchShards();
+    thread.start();
+  }
+
+  @PreDestroy
+  void stop() {
+    watching = false;
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        log.warn("Failed to close the halconfig watcher", e);
+      }
+    }
+  }
+
+  /**
+   * Reports whether the halconfig may have changed since the last call, and resets that state.
+   *
+   * @return false only if the halconfig is known to be unchanged.
+   */
+  boolean pollChanged() {
+    return changed.getAndSet(false) || !watching;
+  }
+
+  private void watchShards() {
+    if (!Files.isDirectory(shardDirectory)) {
+      return;
+    }
+
+    try {
+      shardDirectory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    } catch (IOException e) {
+      log.warn("Unable to watch \"" + shardDirectory + "\" for changes, your halconfig will be checked on every request", e);
+      watching = false;
+    }
+  }
+
+  private void watch(String fileName) {
+    while (watching) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        break;
+      }
+
+      boolean shardEvent = shardDirectory.equals(key.watchable());
+      for (WatchEvent<?> event : key.pollEvents()) {
+        // Matches the halconfig, its journal, and the directory holding its shards.
+        if (shardEvent || event.kind() == OVERFLOW || event.context().toString().startsWith(fileName)) {
+          changed.set(true);
+        }
+
+        if (!shardEvent && event.kind() == ENTRY_CREATE && shardDirectory.getFileName().equals(event.context())) {
+          watchShards();
+        }
+      }
+
+      if (!key.reset() && !shardEvent) {
+        log.warn("Lost the watch on your halconfig's directory, your halconfig will be checked on every request");
+        break;
+      }
+    }
+
+    watching = false;
+  }
+}
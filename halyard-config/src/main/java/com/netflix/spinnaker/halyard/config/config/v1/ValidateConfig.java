@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.config.v1;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+class ValidateConfig {
+  /**
+   * The threads shared by all validation runs. Most validators wait on the network (registries, cloud APIs,
+   * kubernetes clusters), so these mostly sit idle waiting on I/O rather than competing for CPU.
+   */
+  @Bean
+  ExecutorService validateExecutor(@Value("${halconfig.validate.threads:16}") int threads) {
+    AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "validate-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * The threads individual validators run on when they have a deadline. Validators derive their remote calls' timeouts
+   * from their deadline, so a thread stuck on an unreachable host is freed soon after it's given up on. Until then it
+   * counts against the limit, and once every thread is busy validators run on the thread validating the node instead.
+   */
+  @Bean
+  ExecutorService validatorExecutor(@Value("${halconfig.validate.validatorThreads:32}") int threads) {
+    AtomicInteger count = new AtomicInteger();
+    return new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "validator-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+}
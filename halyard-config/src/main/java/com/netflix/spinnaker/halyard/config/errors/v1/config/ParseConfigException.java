@@ -16,6 +16,7 @@
 
 package com.netflix.spinnaker.halyard.config.errors.v1.config;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
 import com.netflix.spinnaker.halyard.config.errors.v1.HalconfigException;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.Problem;
@@ -30,6 +31,11 @@ public class ParseConfigException extends HalconfigException {
     getProblems().add(problem);
   }
 
+  public ParseConfigException(JsonProcessingException e) {
+    Problem problem = new ProblemBuilder(Problem.Severity.FATAL, "Could not parse your halconfig: " + e.getMessage()).build();
+    getProblems().add(problem);
+  }
+
   public ParseConfigException(ParserException e) {
     Problem problem = new ProblemBuilder(Problem.Severity.FATAL, "Could not parse your halconfig: " + e.getMessage()).build();
     getProblems().add(problem);
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.errors.v1.config;
+
+import com.netflix.spinnaker.halyard.config.errors.v1.HalconfigException;
+import com.netflix.spinnaker.halyard.config.model.v1.problem.Problem;
+import lombok.Getter;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * This is thrown when a client asked to change the halconfig only if it was still at the generation it last read, and
+ * it no longer is.
+ */
+public class StaleConfigException extends HalconfigException {
+  @Getter
+  private int responseCode = HttpServletResponse.SC_PRECONDITION_FAILED;
+
+  public StaleConfigException(Problem problem) {
+    super(problem);
+  }
+}
@@ -36,8 +36,8 @@ public abstract class Account extends Node implements Cloneable {
   }
 
   @Override
-  protected boolean matchesLocally(NodeFilter filter) {
-    return NodeFilter.matches(filter.account, name);
+  protected boolean matchesLocally(CompiledNodeFilter filter) {
+    return filter.matchesAccount(name);
   }
 
   @Override
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.model.v1.node;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable form of a NodeFilter, resolved ahead of time into a matcher for each level of the halconfig. Each
+ * level either matches nothing, matches any node, or matches one name, so checking a node against it is a single
+ * comparison.
+ *
+ * Compiled filters are cached by the values of the filter they were compiled from, and can be shared between threads
+ * and requests.
+ *
+ * @see NodeFilter#compile()
+ */
+public final class CompiledNodeFilter {
+  /**
+   * Filters name deployments, accounts and so on that are provided by clients, so the cache is dropped rather than
+   * allowed to grow without bound.
+   */
+  private static final int MAX_CACHED_FILTERS = 1024;
+
+  private static final Map<List<String>, CompiledNodeFilter> cache = new ConcurrentHashMap<>();
+
+  private final Level halconfigFile;
+  private final Level deployment;
+  private final Level provider;
+  private final Level webhook;
+  private final Level account;
+  private final Level master;
+  private final Level configNode;
+
+  private CompiledNodeFilter(List<String> values) {
+    this.halconfigFile = Level.of(values.get(0));
+    this.deployment = Level.of(values.get(1));
+    this.provider = Level.of(values.get(2));
+    this.webhook = Level.of(values.get(3));
+    this.account = Level.of(values.get(4));
+    this.master = Level.of(values.get(5));
+    this.configNode = Level.of(values.get(6));
+  }
+
+  static CompiledNodeFilter of(NodeFilter filter) {
+    List<String> values = Arrays.asList(
+        filter.halconfigFile,
+        filter.deployment,
+        filter.provider,
+        filter.webhook,
+        filter.account,
+        filter.master,
+        filter.configNode
+    );
+
+    CompiledNodeFilter result = cache.get(values);
+    if (result == null) {
+      if (cache.size() >= MAX_CACHED_FILTERS) {
+        cache.clear();
+      }
+
+      result = new CompiledNodeFilter(values);
+      cache.put(values, result);
+    }
+
+    return result;
+  }
+
+  public boolean matchesHalconfigFile(String name) {
+    return halconfigFile.matches(name);
+  }
+
+  public boolean matchesDeployment(String name) {
+    return deployment.matches(name);
+  }
+
+  public boolean matchesProvider(String name) {
+    return provider.matches(name);
+  }
+
+  public boolean matchesWebhook(String name) {
+    return webhook.matches(name);
+  }
+
+  public boolean matchesAccount(String name) {
+    return account.matches(name);
+  }
+
+  public boolean matchesMaster(String name) {
+    return master.matches(name);
+  }
+
+  public boolean matchesConfigNode(String name) {
+    return configNode.matches(name);
+  }
+
+  /**
+   * @return true iff this filter reaches into some provider.
+   */
+  public boolean hasProvider() {
+    return provider.kind != Kind.ABSENT;
+  }
+
+  /**
+   * @return true iff this filter reaches into some webhook.
+   */
+  public boolean hasWebhook() {
+    return webhook.kind != Kind.ABSENT;
+  }
+
+  private enum Kind {
+    ABSENT,
+    ANY,
+    EXACT
+  }
+
+  /**
+   * Matches names at one level of the halconfig the same way NodeFilter.matches() does.
+   */
+  private static final class Level {
+    private static final Level ABSENT = new Level(Kind.ABSENT, null);
+    private static final Level ANY = new Level(Kind.ANY, null);
+
+    final Kind kind;
+    final String name;
+
+    private Level(Kind kind, String name) {
+      this.kind = kind;
+      this.name = name;
+    }
+
+    static Level of(String name) {
+      if (name == null || name.isEmpty()) {
+        return ABSENT;
+      } else if (name.equals(NodeFilter.ANY)) {
+        return ANY;
+      } else {
+        return new Level(Kind.EXACT, name);
+      }
+    }
+
+    boolean matches(String other) {
+      switch (kind) {
+        case ANY:
+          return other != null && !other.isEmpty();
+        case EXACT:
+          // A node named "*" matches any filter that names something at its level.
+          return name.equals(other) || NodeFilter.ANY.equals(other);
+        default:
+          return false;
+      }
+    }
+  }
+}
@@ -60,8 +60,8 @@ public class DeploymentConfiguration extends Node {
   }
 
   @Override
-  protected boolean matchesLocally(NodeFilter filter) {
-    return NodeFilter.matches(filter.deployment, name);
+  protected boolean matchesLocally(CompiledNodeFilter filter) {
+    return filter.matchesDeployment(name);
   }
 
   @Override
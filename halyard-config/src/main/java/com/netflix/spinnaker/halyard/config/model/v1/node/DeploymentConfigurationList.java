@@ -0,0 +1,419 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.model.v1.node;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.netflix.spinnaker.halyard.config.errors.v1.config.ParseConfigException;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The deployments in a halconfig, each of which is only bound to a DeploymentConfiguration the first time it's needed.
+ *
+ * When read, each deployment is kept as the buffered tokens it was parsed from, along with its name. Iterating over
+ * the halconfig's children with a filter only binds the deployments whose name matches the filter, so a request
+ * scoped to a single deployment doesn't pay for binding the rest. A deployment that was never bound is written back
+ * out exactly as it was read.
+ *
+ * A copy of the list (@see #copy()) shares every deployment with the original until it's bound, at which point only
+ * that deployment is copied. Changes staged against a copy of a snapshot only pay for copying the deployments they
+ * touch.
+ *
+ * Since a bound deployment can be shared between readers of the same snapshot, binding is synchronized per deployment.
+ */
+class DeploymentConfigurationList extends AbstractList<DeploymentConfiguration> {
+  private static final String DEFAULT_NAME = new DeploymentConfiguration().getName();
+
+  /**
+   * Copies a bound deployment when its copy is bound.
+   */
+  private static final ObjectMapper copier = new ObjectMapper();
+
+  private final List<Entry> entries = new ArrayList<>();
+
+  /**
+   * The halconfig owning these deployments, assigned as each deployment's parent once it's bound.
+   */
+  private Node parent;
+
+  DeploymentConfigurationList() {
+  }
+
+  DeploymentConfigurationList(Collection<DeploymentConfiguration> deployments) {
+    addAll(deployments);
+  }
+
+  @Override
+  public DeploymentConfiguration get(int index) {
+    return entries.get(index).bind(parent);
+  }
+
+  @Override
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the name of the deployment at the given index, without binding it.
+   */
+  String getName(int index) {
+    return entries.get(index).getName();
+  }
+
+  @Override
+  public DeploymentConfiguration set(int index, DeploymentConfiguration deployment) {
+    DeploymentConfiguration previous = get(index);
+    entries.set(index, new Entry(deployment));
+    return previous;
+  }
+
+  @Override
+  public void add(int index, DeploymentConfiguration deployment) {
+    entries.add(index, new Entry(deployment));
+    modCount++;
+  }
+
+  @Override
+  public DeploymentConfiguration remove(int index) {
+    DeploymentConfiguration previous = get(index);
+    entries.remove(index);
+    modCount++;
+    return previous;
+  }
+
+  /**
+   * Makes the given node the parent of every deployment, including those bound later.
+   */
+  void parentify(Node parent) {
+    this.parent = parent;
+    for (Entry entry : entries) {
+      entry.parentify(parent);
+    }
+  }
+
+  /**
+   * @return what the deployment at the given index will be bound from, either its buffered tokens or the bound
+   * deployment it's a copy of, or null if it's already bound. Neither of these is ever modified, and an unbound
+   * deployment has the same contents as its source.
+   */
+  Object getSource(int index) {
+    return entries.get(index).getSource();
+  }
+
+  /**
+   * Must only be called on a list whose deployments are no longer modified, such as a snapshot's.
+   *
+   * @return a list holding the same deployments, each of which is copied the first time it's bound.
+   */
+  DeploymentConfigurationList copy() {
+    DeploymentConfigurationList result = new DeploymentConfigurationList();
+    for (Entry entry : entries) {
+      result.entries.add(entry.copy());
+    }
+
+    return result;
+  }
+
+  /**
+   * Adds a copy of another list's deployment, which is only copied the first time it's bound. The other list's
+   * deployments must no longer be modified.
+   */
+  void addCopy(DeploymentConfigurationList other, int index) {
+    entries.add(other.entries.get(index).copy());
+    modCount++;
+  }
+
+  /**
+   * @return true iff one of the two deployments is an unbound copy of the other, or both are unbound copies of the
+   * same deployment, in which case they have the same contents.
+   */
+  boolean sharesSource(int index, DeploymentConfigurationList other, int otherIndex) {
+    Entry entry = entries.get(index);
+    Entry otherEntry = other.entries.get(otherIndex);
+    if (entry == otherEntry) {
+      return true;
+    }
+
+    Object source = entry.getSource();
+    Object otherSource = otherEntry.getSource();
+    return (source != null && (source == otherSource || source == otherEntry.getBound()))
+        || (otherSource != null && otherSource == entry.getBound());
+  }
+
+  void bindAll() {
+    for (Entry entry : entries) {
+      entry.bind(parent);
+    }
+  }
+
+  NodeIterator nodeIterator() {
+    return new NodeIterator() {
+      int index = 0;
+
+      @Override
+      public Node getNext(NodeFilter filter) {
+        CompiledNodeFilter compiled = filter.compile();
+        while (index < entries.size()) {
+          Entry entry = entries.get(index++);
+          // Equivalent to DeploymentConfiguration.matchesLocally(), without binding the deployment.
+          if (compiled.matchesDeployment(entry.getName())) {
+            DeploymentConfiguration deployment = entry.bind(parent);
+            if (deployment.matchesToRoot(compiled)) {
+              return deployment;
+            }
+          }
+        }
+
+        return null;
+      }
+
+      @Override
+      public Node getNextMatchingLocally(CompiledNodeFilter filter) {
+        while (index < entries.size()) {
+          Entry entry = entries.get(index++);
+          // The deployment's name is all it matches locally.
+          if (filter.matchesDeployment(entry.getName())) {
+            return entry.bind(parent);
+          }
+        }
+
+        return null;
+      }
+
+      @Override
+      public Node getNext() {
+        if (index < entries.size()) {
+          return entries.get(index++).bind(parent);
+        }
+
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Buffered tokens along with the codec to read them with. These are shared between copies of a list, and never
+   * modified.
+   */
+  static class Tokens {
+    private final TokenBuffer buffer;
+    private final ObjectCodec codec;
+
+    Tokens(TokenBuffer buffer, ObjectCodec codec) {
+      this.buffer = buffer;
+      this.codec = codec;
+    }
+
+    /**
+     * @return a new deployment bound from the tokens.
+     */
+    DeploymentConfiguration bind() {
+      try {
+        return read(DeploymentConfiguration.class);
+      } catch (UnrecognizedPropertyException e) {
+        throw new ParseConfigException(e);
+      } catch (JsonProcessingException e) {
+        throw new ParseConfigException(e);
+      } catch (IOException e) {
+        // The tokens are already in memory.
+        throw new IllegalStateException(e);
+      }
+    }
+
+    <T> T read(Class<T> type) throws IOException {
+      try (JsonParser parser = buffer.asParser(codec)) {
+        parser.nextToken();
+        return codec.readValue(parser, type);
+      }
+    }
+
+    /**
+     * @return the tokens as plain maps and lists.
+     */
+    Object read() {
+      try {
+        return read(Object.class);
+      } catch (IOException e) {
+        // The tokens are already in memory, and any JSON can be read as plain maps and lists.
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private static class Entry {
+    private Tokens tokens;
+    private DeploymentConfiguration source;
+    private String name;
+    private DeploymentConfiguration deployment;
+
+    private Entry() {
+    }
+
+    Entry(DeploymentConfiguration deployment) {
+      this.deployment = deployment;
+    }
+
+    Entry(Tokens tokens, String name) {
+      this.tokens = tokens;
+      this.name = name;
+    }
+
+    synchronized String getName() {
+      if (deployment != null) {
+        return deployment.getName();
+      }
+
+      return source != null ? source.getName() : name;
+    }
+
+    synchronized Object getSource() {
+      if (deployment != null) {
+        return null;
+      }
+
+      return tokens != null ? tokens : source;
+    }
+
+    synchronized DeploymentConfiguration getBound() {
+      return deployment;
+    }
+
+    synchronized Entry copy() {
+      if (tokens != null) {
+        return new Entry(tokens, name);
+      }
+
+      Entry result = new Entry();
+      result.source = deployment != null ? deployment : source;
+      return result;
+    }
+
+    synchronized DeploymentConfiguration bind(Node parent) {
+      if (deployment == null) {
+        if (tokens != null) {
+          deployment = tokens.bind();
+        } else {
+          TokenBuffer buffer = new TokenBuffer(copier, false);
+          try {
+            copier.writeValue(buffer, source);
+          } catch (IOException e) {
+            // The copy is only written to memory.
+            throw new IllegalStateException(e);
+          }
+
+          deployment = new Tokens(buffer, copier).bind();
+        }
+
+        tokens = null;
+        source = null;
+        parentify(parent);
+      }
+
+      return deployment;
+    }
+
+    synchronized void parentify(Node parent) {
+      if (deployment != null && parent != null) {
+        deployment.parent = parent;
+        deployment.parentify();
+      }
+    }
+
+    synchronized void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException {
+      if (deployment != null) {
+        provider.defaultSerializeValue(deployment, gen);
+      } else if (source != null) {
+        provider.defaultSerializeValue(source, gen);
+      } else {
+        tokens.buffer.serialize(gen);
+      }
+    }
+  }
+
+  public static class Serializer extends JsonSerializer<List<DeploymentConfiguration>> {
+    @Override
+    public void serialize(List<DeploymentConfiguration> value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+      gen.writeStartArray();
+      if (value instanceof DeploymentConfigurationList) {
+        for (Entry entry : ((DeploymentConfigurationList) value).entries) {
+          entry.serialize(gen, provider);
+        }
+      } else {
+        for (DeploymentConfiguration deployment : value) {
+          provider.defaultSerializeValue(deployment, gen);
+        }
+      }
+      gen.writeEndArray();
+    }
+  }
+
+  public static class Deserializer extends JsonDeserializer<List<DeploymentConfiguration>> {
+    @Override
+    public List<DeploymentConfiguration> deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      if (!p.isExpectedStartArrayToken()) {
+        throw ctxt.mappingException(List.class);
+      }
+
+      DeploymentConfigurationList result = new DeploymentConfigurationList();
+      while (p.nextToken() != JsonToken.END_ARRAY) {
+        TokenBuffer tokens = new TokenBuffer(p);
+        tokens.copyCurrentStructure(p);
+        result.entries.add(new Entry(new Tokens(tokens, p.getCodec()), readName(tokens, p.getCodec())));
+      }
+
+      return result;
+    }
+
+    /**
+     * Finds a deployment's name by skipping over everything else in its buffered tokens.
+     */
+    private static String readName(TokenBuffer tokens, ObjectCodec codec) throws IOException {
+      try (JsonParser parser = tokens.asParser(codec)) {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          return DEFAULT_NAME;
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.getCurrentName();
+          parser.nextToken();
+          if ("name".equals(field)) {
+            return parser.getValueAsString();
+          }
+
+          parser.skipChildren();
+        }
+      }
+
+      return DEFAULT_NAME;
+    }
+  }
+}
@@ -43,8 +43,8 @@ public class DeploymentEnvironment extends Node {
   }
 
   @Override
-  protected boolean matchesLocally(NodeFilter filter) {
-    return filter.matches(getNodeName(), filter.getConfigNode());
+  protected boolean matchesLocally(CompiledNodeFilter filter) {
+    return filter.matchesConfigNode(getNodeName());
   }
 
   @Override
@@ -39,8 +39,8 @@ public class Features extends Node {
   }
 
   @Override
-  protected boolean matchesLocally(NodeFilter filter) {
-    return filter.matches(getNodeName(), filter.configNode);
+  protected boolean matchesLocally(CompiledNodeFilter filter) {
+    return filter.matchesConfigNode(getNodeName());
   }
 
   @Override
@@ -17,13 +17,14 @@
 package com.netflix.spinnaker.halyard.config.model.v1.node;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Maps the entire contents of ~/.hal/config.
@@ -51,8 +52,12 @@ public class Halconfig extends Node {
 
   /**
    * List of available deployments.
+   *
+   * @see DeploymentConfigurationList
    */
-  private List<DeploymentConfiguration> deploymentConfigurations = new ArrayList<>();
+  @JsonSerialize(using = DeploymentConfigurationList.Serializer.class)
+  @JsonDeserialize(using = DeploymentConfigurationList.Deserializer.class)
+  private List<DeploymentConfiguration> deploymentConfigurations = new DeploymentConfigurationList();
 
   public Halconfig() {
     DeploymentConfiguration defaultConfig = new DeploymentConfiguration();
@@ -99,14 +104,82 @@ public class Halconfig extends Node {
     return "halconfig";
   }
 
+  public void setDeploymentConfigurations(List<DeploymentConfiguration> deploymentConfigurations) {
+    if (deploymentConfigurations instanceof DeploymentConfigurationList) {
+      this.deploymentConfigurations = deploymentConfigurations;
+    } else {
+      this.deploymentConfigurations = new DeploymentConfigurationList(deploymentConfigurations);
+    }
+  }
+
   @Override
   public NodeIterator getChildren() {
-    return NodeIteratorFactory.makeListIterator(deploymentConfigurations.stream().map(d -> (Node) d).collect(Collectors.toList()));
+    return ((DeploymentConfigurationList) deploymentConfigurations).nodeIterator();
+  }
+
+  /**
+   * @return the names of the deployments, in order, without binding them.
+   */
+  @JsonIgnore
+  public List<String> getDeploymentNames() {
+    DeploymentConfigurationList deployments = (DeploymentConfigurationList) deploymentConfigurations;
+    List<String> result = new ArrayList<>(deployments.size());
+    for (int i = 0; i < deployments.size(); i++) {
+      result.add(deployments.getName(i));
+    }
+
+    return result;
+  }
+
+  /**
+   * Copies a halconfig that's no longer modified, such as a snapshot's, so that changes can be staged against the copy.
+   * Each deployment is only copied once it's bound.
+   *
+   * @return the copy, which still needs to be parentified.
+   */
+  public Halconfig copy() {
+    Halconfig result = copyWithoutDeployments();
+    result.deploymentConfigurations = ((DeploymentConfigurationList) deploymentConfigurations).copy();
+    return result;
+  }
+
+  /**
+   * @return a copy of the top-level fields alone, to add copies of deployments to (@see #addDeploymentCopy).
+   */
+  public Halconfig copyWithoutDeployments() {
+    Halconfig result = new Halconfig();
+    result.halyardVersion = halyardVersion;
+    result.currentDeployment = currentDeployment;
+    result.deploymentConfigurations = new DeploymentConfigurationList();
+    return result;
+  }
+
+  /**
+   * Adds a copy of another halconfig's deployment, which is only copied once it's bound. The other halconfig must no
+   * longer be modified.
+   */
+  public void addDeploymentCopy(Halconfig from, int index) {
+    ((DeploymentConfigurationList) deploymentConfigurations).addCopy((DeploymentConfigurationList) from.deploymentConfigurations, index);
+  }
+
+  /**
+   * Binds every deployment that hasn't been needed yet, so that they are all serialized with their defaults filled in.
+   */
+  public void bindDeployments() {
+    ((DeploymentConfigurationList) deploymentConfigurations).bindAll();
+  }
+
+  /**
+   * Deployments are only parentified once they're bound.
+   */
+  @Override
+  public void parentify() {
+    ((DeploymentConfigurationList) deploymentConfigurations).parentify(this);
   }
 
   @Override
-  protected boolean matchesLocally(NodeFilter filter) {
-    return NodeFilter.matches(filter.halconfigFile, path);
+  protected boolean matchesLocally(CompiledNodeFilter filter) {
+    return filter.matchesHalconfigFile(path);
   }
 
   @Override
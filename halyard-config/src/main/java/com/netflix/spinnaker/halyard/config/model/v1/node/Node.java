@@ -21,15 +21,19 @@ import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 /**
  * The "Node" class represents a YAML node in our config hierarchy that can be validated.
@@ -52,7 +56,7 @@ abstract public class Node implements Validatable {
    * @return true iff the filter accepts this node.
    */
   @JsonIgnore
-  protected abstract boolean matchesLocally(NodeFilter filter);
+  protected abstract boolean matchesLocally(CompiledNodeFilter filter);
 
   /**
    * Checks if the filter matches this node all the way to the root.
@@ -62,44 +66,111 @@ abstract public class Node implements Validatable {
    */
   @JsonIgnore
   public boolean matchesToRoot(NodeFilter filter) {
-    boolean result = matchesLocally(filter);
+    return matchesToRoot(filter.compile());
+  }
+
+  @JsonIgnore
+  public boolean matchesToRoot(CompiledNodeFilter filter) {
+    for (Node node = this; node != null; node = node.parent) {
+      if (!node.matchesLocally(filter)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
 
-    if (parent == null || !result) {
-      return result;
+  /**
+   * Checks which of several filters match this node alone.
+   *
+   * @param filters the filters being checked.
+   * @param candidates the indices of the filters to check.
+   * @return the indices of the candidate filters that accept this node.
+   */
+  @JsonIgnore
+  public BitSet matchingLocally(CompiledNodeFilter[] filters, BitSet candidates) {
+    BitSet result = new BitSet(filters.length);
+    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+      if (matchesLocally(filters[i])) {
+        result.set(i);
+      }
     }
 
-    return parent.matchesToRoot(filter);
+    return result;
   }
 
   @JsonIgnore
   public abstract NodeFilter getFilter();
 
+  /**
+   * Identifies the nodes outside of this node's own subtree that validating it reads, so that changing any of them also
+   * validates this node again.
+   *
+   * @return filters matching each such node.
+   */
+  @JsonIgnore
+  public List<NodeFilter> getDependencies() {
+    return Collections.emptyList();
+  }
+
+  private static final String OPTIONS_SUFFIX = "Options";
+
+  /**
+   * For each node class, the methods supplying options for its fields, by field name. A field's options are supplied by
+   * a method named after the field followed by "Options", taking a ProblemSetBuilder. These are resolved once per class,
+   * so looking up a field's options doesn't need any further reflection.
+   */
+  private static final ClassValue<Map<String, MethodHandle>> optionsProviders = new ClassValue<Map<String, MethodHandle>>() {
+    @Override
+    protected Map<String, MethodHandle> computeValue(Class<?> type) {
+      Map<String, MethodHandle> result = new HashMap<>();
+      for (Method method : type.getDeclaredMethods()) {
+        String name = method.getName();
+        if (!name.endsWith(OPTIONS_SUFFIX)
+            || name.length() == OPTIONS_SUFFIX.length()
+            || !Arrays.equals(method.getParameterTypes(), new Class<?>[] { ProblemSetBuilder.class })
+            || !List.class.isAssignableFrom(method.getReturnType())) {
+          continue;
+        }
+
+        try {
+          method.setAccessible(true);
+          MethodHandle provider = MethodHandles.lookup()
+              .unreflect(method)
+              .asType(MethodType.methodType(List.class, Node.class, ProblemSetBuilder.class));
+          result.put(name.substring(0, name.length() - OPTIONS_SUFFIX.length()), provider);
+        } catch (IllegalAccessException | SecurityException e) {
+          log.warn("Could not retrieve options provider " + name + "() on " + type, e);
+        } finally {
+          method.setAccessible(false);
+        }
+      }
+
+      return Collections.unmodifiableMap(result);
+    }
+  };
+
   @JsonIgnore
   public List<String> fieldOptions(ProblemSetBuilder problemSetBuilder, String fieldName) {
     if (fieldName == null || fieldName.isEmpty()) {
       throw new IllegalArgumentException("Input fieldName may not be empty");
     }
 
-    log.info("Looking for options for field " + fieldName + " in node " + getNodeName() + " for type " + getClass());
-    String fieldOptions = fieldName + "Options";
-    Method optionsMethod = null;
+    log.info("Looking for options for field {} in node {} for type {}", fieldName, getNodeName(), getClass());
+    MethodHandle provider = optionsProviders.get(getClass()).get(fieldName);
+    if (provider == null) {
+      // It's expected that many fields won't supply options endpoints.
+      return new ArrayList<>();
+    }
 
     try {
-      optionsMethod = this.getClass().getDeclaredMethod(fieldOptions, ProblemSetBuilder.class);
-      optionsMethod.setAccessible(true);
-
-      return (List<String>) optionsMethod.invoke(this, problemSetBuilder);
-    } catch (IllegalAccessException | InvocationTargetException e) {
-      log.warn("Failed to call " + fieldOptions + "() on " + this.getClass());
+      return (List<String>) provider.invokeExact(this, problemSetBuilder);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      log.warn("Failed to call " + fieldName + OPTIONS_SUFFIX + "() on " + this.getClass());
 
       throw new RuntimeException(e);
-    } catch (NoSuchMethodException e) {
-      // It's expected that many fields won't supply options endpoints.
-      return new ArrayList<>();
-    } finally {
-      if (optionsMethod != null) {
-        optionsMethod.setAccessible(false);
-      }
     }
   }
 
@@ -133,10 +204,71 @@ abstract public class Node implements Validatable {
     }
   }
 
+  /**
+   * For each node class, its @LocalFile fields along with getters for them. These are resolved once per class, so
+   * collecting a node's files doesn't need any further reflection.
+   */
+  private static final ClassValue<LocalFileFields> localFileFields = new ClassValue<LocalFileFields>() {
+    @Override
+    protected LocalFileFields computeValue(Class<?> type) {
+      List<Field> fields = new ArrayList<>();
+      List<MethodHandle> getters = new ArrayList<>();
+      for (Field field : type.getDeclaredFields()) {
+        if (field.getDeclaredAnnotation(LocalFile.class) == null) {
+          continue;
+        }
+
+        try {
+          field.setAccessible(true);
+          getters.add(MethodHandles.lookup()
+              .unreflectGetter(field)
+              .asType(MethodType.methodType(Object.class, Object.class)));
+          fields.add(field);
+        } catch (IllegalAccessException | SecurityException e) {
+          throw new RuntimeException("Failed to get local file " + field.getName() + " of " + type, e);
+        } finally {
+          field.setAccessible(false);
+        }
+      }
+
+      return new LocalFileFields(Collections.unmodifiableList(fields), getters);
+    }
+  };
+
+  private static class LocalFileFields {
+    final List<Field> fields;
+    final List<MethodHandle> getters;
+
+    LocalFileFields(List<Field> fields, List<MethodHandle> getters) {
+      this.fields = fields;
+      this.getters = getters;
+    }
+  }
+
   public List<Field> localFiles() {
-    return Arrays.stream(getClass().getDeclaredFields())
-        .filter(f -> f.getDeclaredAnnotation(LocalFile.class) != null)
-        .collect(Collectors.toList());
+    return localFileFields.get(getClass()).fields;
+  }
+
+  /**
+   * @return the paths held by this node's @LocalFile fields, skipping any that aren't set.
+   */
+  public List<String> localFilePaths() {
+    List<MethodHandle> getters = localFileFields.get(getClass()).getters;
+    List<String> result = new ArrayList<>(getters.size());
+    for (MethodHandle getter : getters) {
+      String path;
+      try {
+        path = (String) (Object) getter.invokeExact((Object) this);
+      } catch (Throwable e) {
+        throw new RuntimeException("Failed to get local files for node " + getNodeName(), e);
+      }
+
+      if (path != null) {
+        result.add(path);
+      }
+    }
+
+    return result;
   }
 
   public void recursiveConsume(Consumer<Node> consumer) {
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.model.v1.node;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Finds which nodes differ between two versions of a halconfig, using their content hashes to skip every subtree that
+ * is the same in both.
+ */
+public class NodeDiff {
+  private final NodeHashes beforeHashes;
+  private final NodeHashes afterHashes;
+  private final Set<NodeFilter> changed = new HashSet<>();
+
+  private NodeDiff(NodeHashes beforeHashes, NodeHashes afterHashes) {
+    this.beforeHashes = beforeHashes;
+    this.afterHashes = afterHashes;
+  }
+
+  /**
+   * @param before is the earlier version of the node.
+   * @param beforeHashes are the content hashes of the earlier version.
+   * @param after is the later version of the node.
+   * @param afterHashes are the content hashes of the later version.
+   * @return the filters of every node that was added, removed, or whose subtree's content changed, which includes the
+   * ancestors of all of these.
+   */
+  public static Set<NodeFilter> changedNodes(Node before, NodeHashes beforeHashes, Node after, NodeHashes afterHashes) {
+    NodeDiff diff = new NodeDiff(beforeHashes, afterHashes);
+    diff.compare(before, after);
+    return diff.changed;
+  }
+
+  private void compare(Node before, Node after) {
+    if (beforeHashes.getHash(before).equals(afterHashes.getHash(after))) {
+      return;
+    }
+
+    changed.add(before.getFilter());
+    changed.add(after.getFilter());
+
+    if (before instanceof Halconfig && after instanceof Halconfig && compareDeployments((Halconfig) before, (Halconfig) after)) {
+      return;
+    }
+
+    Map<String, Node> beforeChildren = childrenByName(before);
+    Map<String, Node> afterChildren = childrenByName(after);
+    if (beforeChildren == null || afterChildren == null) {
+      // Children can't be told apart by name, so treat all of them as replaced.
+      addSubtree(before);
+      addSubtree(after);
+      return;
+    }
+
+    for (Map.Entry<String, Node> entry : afterChildren.entrySet()) {
+      Node beforeChild = beforeChildren.remove(entry.getKey());
+      if (beforeChild == null || beforeChild.getClass() != entry.getValue().getClass()) {
+        addSubtree(entry.getValue());
+        if (beforeChild != null) {
+          addSubtree(beforeChild);
+        }
+      } else {
+        compare(beforeChild, entry.getValue());
+      }
+    }
+
+    for (Node removed : beforeChildren.values()) {
+      addSubtree(removed);
+    }
+  }
+
+  /**
+   * Compares the deployments of two halconfigs by their hashes, only binding those that differ.
+   *
+   * @return false if two deployments share a name, and so can't be compared this way.
+   */
+  private boolean compareDeployments(Halconfig before, Halconfig after) {
+    Map<String, Integer> beforeIndexes = indexesByName(before.getDeploymentNames());
+    Map<String, Integer> afterIndexes = indexesByName(after.getDeploymentNames());
+    if (beforeIndexes == null || afterIndexes == null) {
+      return false;
+    }
+
+    for (Map.Entry<String, Integer> entry : afterIndexes.entrySet()) {
+      Integer beforeIndex = beforeIndexes.remove(entry.getKey());
+      if (beforeIndex == null) {
+        addSubtree(after.getDeploymentConfigurations().get(entry.getValue()));
+      } else if (deploymentDiffers(before, beforeHashes, beforeIndex, after, afterHashes, entry.getValue())) {
+        compare(before.getDeploymentConfigurations().get(beforeIndex), after.getDeploymentConfigurations().get(entry.getValue()));
+      }
+    }
+
+    for (Integer removed : beforeIndexes.values()) {
+      addSubtree(before.getDeploymentConfigurations().get(removed));
+    }
+
+    return true;
+  }
+
+  /**
+   * Compares two deployments without binding either of them. One that's an unbound copy of the other is the same
+   * without having to be hashed.
+   *
+   * @return true iff the deployment at beforeIndex in before differs from the one at afterIndex in after.
+   */
+  public static boolean deploymentDiffers(Halconfig before, NodeHashes beforeHashes, int beforeIndex,
+      Halconfig after, NodeHashes afterHashes, int afterIndex) {
+    DeploymentConfigurationList beforeDeployments = (DeploymentConfigurationList) before.getDeploymentConfigurations();
+    DeploymentConfigurationList afterDeployments = (DeploymentConfigurationList) after.getDeploymentConfigurations();
+    if (afterDeployments.sharesSource(afterIndex, beforeDeployments, beforeIndex)) {
+      return false;
+    }
+
+    return !beforeHashes.getDeploymentHash(before, beforeIndex).equals(afterHashes.getDeploymentHash(after, afterIndex));
+  }
+
+  private static Map<String, Integer> indexesByName(List<String> names) {
+    Map<String, Integer> result = new HashMap<>();
+    for (int i = 0; i < names.size(); i++) {
+      if (result.put(names.get(i), i) != null) {
+        return null;
+      }
+    }
+
+    return result;
+  }
+
+  private void addSubtree(Node node) {
+    changed.add(node.getFilter());
+
+    NodeIterator children = node.getChildren();
+    Node child = children.getNext();
+    while (child != null) {
+      addSubtree(child);
+      child = children.getNext();
+    }
+  }
+
+  /**
+   * @return the node's children by name, or null if two of them share a name.
+   */
+  private static Map<String, Node> childrenByName(Node node) {
+    Map<String, Node> result = new LinkedHashMap<>();
+    NodeIterator children = node.getChildren();
+    Node child = children.getNext();
+    while (child != null) {
+      if (result.put(Objects.toString(child.getNodeName()), child) != null) {
+        return null;
+      }
+
+      child = children.getNext();
+    }
+
+    return result;
+  }
+}
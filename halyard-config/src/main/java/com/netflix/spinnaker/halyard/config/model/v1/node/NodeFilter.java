@@ -34,7 +34,7 @@ public class NodeFilter implements Cloneable {
   String master = "";
   String configNode = ""; // TODO(lwander) this is temporary until a better nodefilter is written
 
-  private static final String ANY = "*";
+  static final String ANY = "*";
 
   public static boolean matches(String a, String b) {
     if (a.isEmpty() || b.isEmpty()) {
@@ -48,6 +48,13 @@ public class NodeFilter implements Cloneable {
     return a.equals(b);
   }
 
+  /**
+   * @return an immutable form of this filter as it is now, for matching it against nodes.
+   */
+  public CompiledNodeFilter compile() {
+    return CompiledNodeFilter.of(this);
+  }
+
   public NodeFilter withAnyHalconfigFile() {
     halconfigFile = ANY;
     return this;
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.model.v1.node;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.BeanProperty;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.ContextualSerializer;
+import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
+import com.netflix.spinnaker.halyard.config.errors.v1.config.ParseConfigException;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content hashes of the nodes in a halconfig, computed bottom-up: a node's hash covers its own fields along with the
+ * hashes of its children, so two nodes have the same hash iff their whole subtrees are the same.
+ *
+ * Deployments are the exception: a deployment's hash covers all of its content, written with every key sorted. That
+ * way the hash of a deployment that was never bound can be computed from a throwaway copy bound from its buffered
+ * tokens, leaving the deployment itself unbound, and comes out the same as it will once it's bound.
+ *
+ * Hashes are cached, so an instance must only be used with nodes that aren't modified while it's in use, such as the
+ * nodes of a snapshot. The hashes of a halconfig staged against a snapshot can be backed by the snapshot's hashes, so
+ * that deployments copied from the snapshot and never bound are hashed once per snapshot rather than per change.
+ */
+public class NodeHashes {
+  private static final String HASHES_ATTRIBUTE = NodeHashes.class.getName() + ".hashes";
+  private static final String ROOT_ATTRIBUTE = NodeHashes.class.getName() + ".root";
+
+  /**
+   * Serializes values as plain JSON with the keys of every map sorted.
+   */
+  private static final ObjectMapper canonicalMapper = new ObjectMapper()
+      .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+  /**
+   * Serializes a node's own fields as usual, but every child node as just its hash.
+   */
+  private static final ObjectMapper hashingMapper = new ObjectMapper()
+      .addMixIn(Halconfig.class, HalconfigHashes.class)
+      .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+      .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false)
+      .registerModule(new SimpleModule().setSerializerModifier(new BeanSerializerModifier() {
+        @Override
+        public JsonSerializer<?> modifySerializer(SerializationConfig config, BeanDescription beanDesc, JsonSerializer<?> serializer) {
+          if (Node.class.isAssignableFrom(beanDesc.getBeanClass())) {
+            return new ChildHashSerializer((JsonSerializer<Object>) serializer);
+          }
+
+          return serializer;
+        }
+      }));
+
+  /**
+   * Hashes of nodes, and of the sources of unbound deployments (@see DeploymentConfigurationList#getSource(int)).
+   */
+  private final Map<Object, String> hashes = Collections.synchronizedMap(new IdentityHashMap<>());
+
+  /**
+   * The hashes of the snapshot the nodes were copied from, if any.
+   */
+  private final NodeHashes base;
+
+  public NodeHashes() {
+    this(null);
+  }
+
+  /**
+   * @param base are the hashes of the snapshot a halconfig was copied from, used for the deployments it hasn't bound.
+   */
+  public NodeHashes(NodeHashes base) {
+    this.base = base;
+  }
+
+  /**
+   * @return the content hash of the given node.
+   */
+  public String getHash(Node node) {
+    String hash = hashes.get(node);
+    if (hash == null) {
+      hash = computeHash(node);
+      hashes.put(node, hash);
+    }
+
+    return hash;
+  }
+
+  /**
+   * @return the content hashes of the given node and every node below it, keyed by their path from the given node.
+   */
+  public Map<String, String> getHashes(Node node) {
+    Map<String, String> result = new LinkedHashMap<>();
+    collectHashes(node, node.getNodeName(), result);
+    return result;
+  }
+
+  private void collectHashes(Node node, String path, Map<String, String> result) {
+    result.put(path, getHash(node));
+
+    NodeIterator children = node.getChildren();
+    Node child = children.getNext();
+    while (child != null) {
+      collectHashes(child, path + "." + child.getNodeName(), result);
+      child = children.getNext();
+    }
+  }
+
+  /**
+   * @return the content hash of the halconfig's deployment at the given index, without binding it.
+   */
+  public String getDeploymentHash(Halconfig halconfig, int index) {
+    return getDeploymentHash((DeploymentConfigurationList) halconfig.getDeploymentConfigurations(), index);
+  }
+
+  private String getDeploymentHash(DeploymentConfigurationList deployments, int index) {
+    Object source = deployments.getSource(index);
+    if (source == null) {
+      return getHash(deployments.get(index));
+    }
+
+    return base != null ? base.getSourceHash(source) : getSourceHash(source);
+  }
+
+  private String getSourceHash(Object source) {
+    if (source instanceof Node) {
+      return getHash((Node) source);
+    }
+
+    String hash = hashes.get(source);
+    if (hash == null) {
+      DeploymentConfigurationList.Tokens tokens = (DeploymentConfigurationList.Tokens) source;
+      Object contents;
+      try {
+        // Hashed as the deployment would serialize once bound, defaults included. The bound copy is thrown away.
+        contents = canonicalMapper.convertValue(tokens.bind(), Map.class);
+      } catch (ParseConfigException e) {
+        // A deployment that can't be bound is hashed as it was read.
+        contents = tokens.read();
+      }
+
+      hash = digest(DeploymentConfiguration.class, canonicalBytes(contents));
+      hashes.put(source, hash);
+    }
+
+    return hash;
+  }
+
+  private String computeHash(Node node) {
+    if (node instanceof DeploymentConfiguration) {
+      return digest(DeploymentConfiguration.class, canonicalBytes(canonicalMapper.convertValue(node, Map.class)));
+    }
+
+    byte[] contents;
+    try {
+      contents = hashingMapper.writer()
+          .withAttribute(HASHES_ATTRIBUTE, this)
+          .withAttribute(ROOT_ATTRIBUTE, node)
+          .writeValueAsBytes(node);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Unable to hash node " + node.getNodeName(), e);
+    }
+
+    return digest(node.getClass(), contents);
+  }
+
+  private static byte[] canonicalBytes(Object value) {
+    try {
+      return canonicalMapper.writeValueAsBytes(value);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Unable to hash deployment", e);
+    }
+  }
+
+  private static String digest(Class<?> nodeClass, byte[] contents) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(nodeClass.getName().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(contents);
+      return DatatypeConverter.printHexBinary(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Writes the halconfig's deployments as their hashes, without binding them.
+   */
+  private abstract static class HalconfigHashes {
+    @JsonSerialize(using = DeploymentHashesSerializer.class)
+    private List<DeploymentConfiguration> deploymentConfigurations;
+  }
+
+  static class DeploymentHashesSerializer extends JsonSerializer<List<DeploymentConfiguration>> {
+    @Override
+    public void serialize(List<DeploymentConfiguration> value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+      NodeHashes hashes = (NodeHashes) provider.getAttribute(HASHES_ATTRIBUTE);
+      DeploymentConfigurationList deployments = (DeploymentConfigurationList) value;
+      gen.writeStartArray();
+      for (int i = 0; i < deployments.size(); i++) {
+        gen.writeString(hashes.getDeploymentHash(deployments, i));
+      }
+      gen.writeEndArray();
+    }
+  }
+
+  private static class ChildHashSerializer extends JsonSerializer<Object> implements ContextualSerializer, ResolvableSerializer {
+    private final JsonSerializer<Object> delegate;
+
+    ChildHashSerializer(JsonSerializer<Object> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void serialize(Object value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+      if (value == provider.getAttribute(ROOT_ATTRIBUTE)) {
+        delegate.serialize(value, gen, provider);
+      } else {
+        gen.writeString(childHash(value, provider));
+      }
+    }
+
+    @Override
+    public void serializeWithType(Object value, JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+      if (value == provider.getAttribute(ROOT_ATTRIBUTE)) {
+        delegate.serializeWithType(value, gen, provider, typeSer);
+      } else {
+        gen.writeString(childHash(value, provider));
+      }
+    }
+
+    private static String childHash(Object value, SerializerProvider provider) {
+      return ((NodeHashes) provider.getAttribute(HASHES_ATTRIBUTE)).getHash((Node) value);
+    }
+
+    @Override
+    public JsonSerializer<?> createContextual(SerializerProvider provider, BeanProperty property) throws JsonMappingException {
+      if (delegate instanceof ContextualSerializer) {
+        return new ChildHashSerializer((JsonSerializer<Object>) ((ContextualSerializer) delegate).createContextual(provider, property));
+      }
+
+      return this;
+    }
+
+    @Override
+    public void resolve(SerializerProvider provider) throws JsonMappingException {
+      if (delegate instanceof ResolvableSerializer) {
+        ((ResolvableSerializer) delegate).resolve(provider);
+      }
+    }
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.model.v1.node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * An index of the nodes in a halconfig that must no longer be modified, so that looking nodes up by filter doesn't
+ * need to walk the whole tree.
+ *
+ * Within each deployment, nodes are indexed first by their type, then by the provider, account, webhook, master and
+ * config node they sit at. A filter naming each of these exactly finds its nodes with a single map lookup, while a
+ * wildcard only scans the nodes of the requested type. Each deployment is only indexed (and bound) the first time a
+ * lookup reaches it.
+ *
+ * Lookups return the same nodes, in the same order, as walking the tree with the filter.
+ */
+public class NodeIndex {
+  private static final String ANY = "*";
+
+  private final Halconfig halconfig;
+
+  private final Map<String, List<Integer>> deploymentsByName = new HashMap<>();
+
+  private final AtomicReferenceArray<DeploymentIndex> deployments;
+
+  public NodeIndex(Halconfig halconfig) {
+    this.halconfig = halconfig;
+
+    DeploymentConfigurationList list = (DeploymentConfigurationList) halconfig.getDeploymentConfigurations();
+    for (int i = 0; i < list.size(); i++) {
+      deploymentsByName.computeIfAbsent(list.getName(i), k -> new ArrayList<>()).add(i);
+    }
+
+    this.deployments = new AtomicReferenceArray<>(list.size());
+  }
+
+  /**
+   * Given a node filter and a node type, find all nodes that match both the filter and the type of the Node.
+   *
+   * @param filter is the filter to lookup by.
+   * @param clazz is the class of the node type we want to find.
+   * @return the matching nodes.
+   */
+  public List<Node> getMatchingNodesOfType(NodeFilter filter, Class<? extends Node> clazz) {
+    List<Node> result = new ArrayList<>();
+    CompiledNodeFilter compiled = filter.compile();
+
+    if (halconfig.matchesLocally(compiled)) {
+      for (int index : matchingDeployments(filter)) {
+        deploymentIndex(index).collect(filter, compiled, clazz, result);
+      }
+    }
+
+    // The walk always visits the root, and visits it last.
+    if (clazz.isInstance(halconfig)) {
+      result.add(halconfig);
+    }
+
+    return result;
+  }
+
+  private List<Integer> matchingDeployments(NodeFilter filter) {
+    if (filter.deployment.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    if (filter.deployment.equals(ANY)) {
+      List<Integer> all = new ArrayList<>(deployments.length());
+      for (int i = 0; i < deployments.length(); i++) {
+        all.add(i);
+      }
+      return all;
+    }
+
+    return deploymentsByName.getOrDefault(filter.deployment, Collections.emptyList());
+  }
+
+  private DeploymentIndex deploymentIndex(int index) {
+    DeploymentIndex result = deployments.get(index);
+    if (result == null) {
+      // Two readers may race to index the same deployment, but they build equivalent indexes from the same nodes.
+      result = new DeploymentIndex(halconfig.getDeploymentConfigurations().get(index));
+      if (!deployments.compareAndSet(index, null, result)) {
+        result = deployments.get(index);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * The parts of a node's filter it can be indexed by. The deployment and halconfig file are the same for every node
+   * in a deployment's index.
+   */
+  private enum Dimension {
+    PROVIDER {
+      String get(NodeFilter filter) {
+        return filter.provider;
+      }
+    },
+    ACCOUNT {
+      String get(NodeFilter filter) {
+        return filter.account;
+      }
+    },
+    WEBHOOK {
+      String get(NodeFilter filter) {
+        return filter.webhook;
+      }
+    },
+    MASTER {
+      String get(NodeFilter filter) {
+        return filter.master;
+      }
+    },
+    CONFIG_NODE {
+      String get(NodeFilter filter) {
+        return filter.configNode;
+      }
+    };
+
+    abstract String get(NodeFilter filter);
+
+    static Set<Dimension> setIn(NodeFilter filter) {
+      Set<Dimension> result = EnumSet.noneOf(Dimension.class);
+      for (Dimension dimension : values()) {
+        if (!dimension.get(filter).isEmpty()) {
+          result.add(dimension);
+        }
+      }
+      return result;
+    }
+
+    static List<String> project(NodeFilter filter, Set<Dimension> dimensions) {
+      return dimensions.stream().map(d -> d.get(filter)).collect(Collectors.toList());
+    }
+  }
+
+  private static class IndexedNode {
+    final int ordinal;
+    final Node node;
+
+    IndexedNode(int ordinal, Node node) {
+      this.ordinal = ordinal;
+      this.node = node;
+    }
+  }
+
+  private static class DeploymentIndex {
+    /**
+     * Nodes by their class, then by which dimensions their filter sets, then by the values of those dimensions.
+     */
+    final Map<Class<?>, Map<Set<Dimension>, Map<List<String>, List<IndexedNode>>>> nodes = new HashMap<>();
+
+    /**
+     * The classes present in this deployment that are assignable to each class that has been looked up.
+     */
+    final Map<Class<?>, List<Class<?>>> subclasses = new ConcurrentHashMap<>();
+
+    int ordinal = 0;
+
+    DeploymentIndex(DeploymentConfiguration deployment) {
+      add(deployment);
+    }
+
+    private void add(Node node) {
+      NodeIterator children = node.getChildren();
+      Node child = children.getNext();
+      while (child != null) {
+        add(child);
+        child = children.getNext();
+      }
+
+      // Children are numbered before their parents, matching the order the walk returns them in.
+      NodeFilter coordinates = node.getFilter();
+      Set<Dimension> dimensions = Dimension.setIn(coordinates);
+      nodes.computeIfAbsent(node.getClass(), k -> new HashMap<>())
+          .computeIfAbsent(dimensions, k -> new HashMap<>())
+          .computeIfAbsent(Dimension.project(coordinates, dimensions), k -> new ArrayList<>())
+          .add(new IndexedNode(ordinal++, node));
+    }
+
+    void collect(NodeFilter filter, CompiledNodeFilter compiled, Class<? extends Node> clazz, List<Node> result) {
+      List<IndexedNode> matching = new ArrayList<>();
+      int buckets = 0;
+
+      for (Class<?> type : subclasses.computeIfAbsent(clazz, this::assignableTo)) {
+        for (Map.Entry<Set<Dimension>, Map<List<String>, List<IndexedNode>>> entry : nodes.get(type).entrySet()) {
+          List<String> key = Dimension.project(filter, entry.getKey());
+          if (key.contains(ANY)) {
+            for (List<IndexedNode> bucket : entry.getValue().values()) {
+              buckets += addMatching(compiled, bucket, matching);
+            }
+          } else {
+            buckets += addMatching(compiled, entry.getValue().get(key), matching);
+          }
+        }
+      }
+
+      if (buckets > 1) {
+        matching.sort(Comparator.comparingInt(n -> n.ordinal));
+      }
+
+      for (IndexedNode indexed : matching) {
+        result.add(indexed.node);
+      }
+    }
+
+    private List<Class<?>> assignableTo(Class<?> clazz) {
+      return nodes.keySet()
+          .stream()
+          .filter(clazz::isAssignableFrom)
+          .collect(Collectors.toList());
+    }
+
+    private static int addMatching(CompiledNodeFilter filter, List<IndexedNode> bucket, List<IndexedNode> matching) {
+      if (bucket == null) {
+        return 0;
+      }
+
+      // The index narrows down the candidates, but only the nodes themselves know how they match a filter.
+      for (IndexedNode indexed : bucket) {
+        if (indexed.node.matchesToRoot(filter)) {
+          matching.add(indexed);
+        }
+      }
+
+      return 1;
+    }
+  }
+}
@@ -19,4 +19,11 @@ package com.netflix.spinnaker.halyard.config.model.v1.node;
 public interface NodeIterator {
   Node getNext(NodeFilter filter);
   Node getNext();
+
+  /**
+   * Like getNext(filter), but only checks that each child matches the filter locally. This is only correct when the
+   * node whose children are being iterated over already matched the filter all the way to the root, which is always
+   * the case for a traversal that only descends into matching nodes.
+   */
+  Node getNextMatchingLocally(CompiledNodeFilter filter);
 }
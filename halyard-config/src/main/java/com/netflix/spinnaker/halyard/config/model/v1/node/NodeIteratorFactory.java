@@ -18,10 +18,14 @@ package com.netflix.spinnaker.halyard.config.model.v1.node;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * @see Node
@@ -29,52 +33,68 @@ import java.util.stream.Collectors;
  */
 @Slf4j
 public class NodeIteratorFactory {
+  /**
+   * For each node class, getters for the fields that may hold child nodes, in declaration order. These are resolved
+   * once per class, so iterating over a node's children doesn't need any further reflection.
+   */
+  private static final ClassValue<List<MethodHandle>> childAccessors = new ClassValue<List<MethodHandle>>() {
+    @Override
+    protected List<MethodHandle> computeValue(Class<?> type) {
+      List<MethodHandle> result = new ArrayList<>();
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      for (Field field : type.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers()) || !mayHoldNode(field.getType())) {
+          continue;
+        }
+
+        try {
+          field.setAccessible(true);
+          result.add(lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class)));
+        } catch (IllegalAccessException | SecurityException e) {
+          log.warn("Could not retrieve field accessor for " + field.getName(), e);
+        } finally {
+          field.setAccessible(false);
+        }
+      }
+
+      log.trace("Node class {} has {} fields that may hold children", type.getSimpleName(), result.size());
+
+      return Collections.unmodifiableList(result);
+    }
+  };
+
+  private static boolean mayHoldNode(Class<?> fieldType) {
+    return Node.class.isAssignableFrom(fieldType) || fieldType.isAssignableFrom(Node.class);
+  }
+
   /**
    * Creates an iterator from a Node that allows us to iterate over all sub-fields with type node.
    *
+   * Each field is only read as the iterator reaches it, so iterating doesn't allocate anything beyond the iterator.
+   *
    * @param node the node who's fields to iterate over.
    * @return the resulting interator.
    */
   public static NodeIterator makeReflectiveIterator(Node node) {
-    List<Node> nodes = new ArrayList<>(Arrays.asList(node.getClass().getDeclaredFields()))
-        .stream()
-        .filter(f -> {
-          try {
-            f.setAccessible(true);
-            return f.get(node) instanceof Node;
-          } catch (IllegalAccessException e) {
-            log.warn("Could not retrieve field value for " + f.getName(), e);
-            return false;
-          } finally {
-            f.setAccessible(false);
-          }
-        })
-        .map(n -> {
-          try {
-            n.setAccessible(true);
-            return (Node) n.get(node);
-          } catch (IllegalAccessException | SecurityException e) {
-            log.warn("Could not retrieve node value for " + n.getName(), e);
-            return null;
-          } finally {
-            n.setAccessible(false);
-          }
-        })
-        .filter(n -> n != null).collect(Collectors.toList());
-
-    log.trace("Node " + node.getNodeName() + " reflectively collected " + nodes.size() + " children");
-
-    return new NodeListIterator(nodes);
+    return new NodeFieldIterator(node, childAccessors.get(node.getClass()));
   }
 
-  public static NodeIterator makeListIterator(List<Node> nodes) {
+  /**
+   * Creates an iterator directly over the given list, which must not be modified while it is being iterated over.
+   *
+   * @param nodes the nodes to iterate over.
+   * @return the resulting iterator.
+   */
+  public static NodeIterator makeListIterator(List<? extends Node> nodes) {
     return new NodeListIterator(nodes);
   }
 
   public static NodeIterator makeEmptyIterator() {
-    return new NodeEmptyIterator();
+    return EMPTY_ITERATOR;
   }
 
+  private static final NodeIterator EMPTY_ITERATOR = new NodeEmptyIterator();
+
   private static class NodeEmptyIterator implements NodeIterator {
     @Override
     public Node getNext(NodeFilter filter) {
@@ -85,13 +105,18 @@ public class NodeIteratorFactory {
     public Node getNext() {
       return null;
     }
+
+    @Override
+    public Node getNextMatchingLocally(CompiledNodeFilter filter) {
+      return null;
+    }
   }
 
   private static class NodeListIterator implements NodeIterator {
-    List<Node> nodes = new ArrayList<>();
-    Integer index = 0;
+    final List<? extends Node> nodes;
+    int index = 0;
 
-    NodeListIterator(List<Node> nodes) {
+    NodeListIterator(List<? extends Node> nodes) {
       this.nodes = nodes;
     }
 
@@ -107,9 +132,22 @@ public class NodeIteratorFactory {
 
     @Override
     public Node getNext(NodeFilter filter) {
+      CompiledNodeFilter compiled = filter.compile();
       while (hasNext()) {
         Node result = getNext();
-        if (result.matchesToRoot(filter)) {
+        if (result.matchesToRoot(compiled)) {
+          return result;
+        }
+      }
+
+      return null;
+    }
+
+    @Override
+    public Node getNextMatchingLocally(CompiledNodeFilter filter) {
+      while (hasNext()) {
+        Node result = getNext();
+        if (result.matchesLocally(filter)) {
           return result;
         }
       }
@@ -121,4 +159,55 @@ public class NodeIteratorFactory {
       return index < nodes.size();
     }
   }
+
+  private static class NodeFieldIterator implements NodeIterator {
+    final Node node;
+    final List<MethodHandle> accessors;
+    int index = 0;
+
+    NodeFieldIterator(Node node, List<MethodHandle> accessors) {
+      this.node = node;
+      this.accessors = accessors;
+    }
+
+    @Override
+    public Node getNext() {
+      while (index < accessors.size()) {
+        Object child;
+        try {
+          child = (Object) accessors.get(index++).invokeExact((Object) node);
+        } catch (Throwable e) {
+          // Field getters only throw if the field is inaccessible, and these were all made accessible up front.
+          throw new IllegalStateException("Could not retrieve node value of " + node.getNodeName(), e);
+        }
+
+        if (child instanceof Node) {
+          return (Node) child;
+        }
+      }
+
+      return null;
+    }
+
+    @Override
+    public Node getNext(NodeFilter filter) {
+      CompiledNodeFilter compiled = filter.compile();
+      Node result = getNext();
+      while (result != null && !result.matchesToRoot(compiled)) {
+        result = getNext();
+      }
+
+      return result;
+    }
+
+    @Override
+    public Node getNextMatchingLocally(CompiledNodeFilter filter) {
+      Node result = getNext();
+      while (result != null && !result.matchesLocally(filter)) {
+        result = getNext();
+      }
+
+      return result;
+    }
+  }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.model.v1.node;
+
+import com.netflix.spinnaker.halyard.config.model.v1.problem.Problem.Severity;
+import lombok.Data;
+
+/**
+ * One of several lookups answered together, e.g. "all accounts of the kubernetes provider in deployment default".
+ */
+@Data
+public class NodeQuery {
+  /**
+   * Which nodes to look for. As with any lookup, "*" matches every name at a level.
+   */
+  NodeFilter filter = new NodeFilter();
+
+  /**
+   * What kind of node to return from the matching part of the halconfig.
+   */
+  Type type;
+
+  /**
+   * Whether to validate the matching nodes, and report the problems found in the query's result.
+   */
+  boolean validate = false;
+
+  /**
+   * The most severe problem validation may find without the query's result being marked as failed.
+   */
+  Severity severity = Severity.WARNING;
+
+  public enum Type {
+    DEPLOYMENT(DeploymentConfiguration.class),
+    PROVIDER(Provider.class),
+    ACCOUNT(Account.class),
+    FEATURES(Features.class),
+    WEBHOOK(Webhook.class),
+    MASTER(Master.class);
+
+    private final Class<? extends Node> nodeClass;
+
+    Type(Class<? extends Node> nodeClass) {
+      this.nodeClass = nodeClass;
+    }
+
+    public Class<? extends Node> getNodeClass() {
+      return nodeClass;
+    }
+  }
+}
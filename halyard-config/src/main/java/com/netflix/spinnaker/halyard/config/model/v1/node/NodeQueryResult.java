@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.model.v1.node;
+
+import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSet;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The answer to a single NodeQuery: the nodes it matched, and the problems found looking for and validating them.
+ */
+@Data
+public class NodeQueryResult {
+  List<Node> nodes = new ArrayList<>();
+  ProblemSet problemSet = new ProblemSet();
+
+  /**
+   * True iff the query matched nothing, or validating the nodes it matched found a problem more severe than the
+   * query's severity.
+   */
+  boolean failed;
+}
@@ -22,7 +22,6 @@ import lombok.Getter;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Data
 @EqualsAndHashCode(callSuper = false)
@@ -32,12 +31,12 @@ public abstract class Provider<T extends Account> extends Node implements Clonea
 
   @Override
   public NodeIterator getChildren() {
-    return NodeIteratorFactory.makeListIterator(accounts.stream().map(a -> (Node) a).collect(Collectors.toList()));
+    return NodeIteratorFactory.makeListIterator(accounts);
   }
 
   @Override
-  public boolean matchesLocally(NodeFilter filter) {
-    return NodeFilter.matches(filter.provider, getNodeName());
+  public boolean matchesLocally(CompiledNodeFilter filter) {
+    return filter.matchesProvider(getNodeName());
   }
 
   @Override
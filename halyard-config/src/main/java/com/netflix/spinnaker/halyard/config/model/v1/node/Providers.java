@@ -45,8 +45,8 @@ public class Providers extends Node implements Cloneable {
   }
 
   @Override
-  protected boolean matchesLocally(NodeFilter filter) {
-    return !filter.provider.isEmpty();
+  protected boolean matchesLocally(CompiledNodeFilter filter) {
+    return filter.hasProvider();
   }
 
   @Override
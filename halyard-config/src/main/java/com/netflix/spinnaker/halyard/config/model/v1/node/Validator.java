@@ -18,6 +18,62 @@ package com.netflix.spinnaker.halyard.config.model.v1.node;
 
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder;
 
+import java.util.function.BooleanSupplier;
+
 public abstract class Validator<T extends Node> {
+  /**
+   * The time (as in System.currentTimeMillis()) by which the validator running on this thread must be done, if any.
+   */
+  private static final ThreadLocal<Long> deadline = new ThreadLocal<>();
+
   abstract public void validate(ProblemSetBuilder p, T n);
+
+  /**
+   * Runs the given validation on this thread with the given deadline, which the validators it runs see through
+   * remainingMillis().
+   *
+   * @param deadline is the time (as in System.currentTimeMillis()) by which the validation must be done, or
+   *                 Long.MAX_VALUE if there is none.
+   */
+  public static boolean runWithDeadline(long deadline, BooleanSupplier validation) {
+    Validator.deadline.set(deadline);
+    try {
+      return validation.getAsBoolean();
+    } finally {
+      Validator.deadline.remove();
+    }
+  }
+
+  /**
+   * @return how many milliseconds the running validator has left, 0 once it has run out, or Long.MAX_VALUE if it can
+   * take as long as it needs.
+   */
+  protected static long remainingMillis() {
+    Long end = deadline.get();
+    if (end == null || end == Long.MAX_VALUE) {
+      return Long.MAX_VALUE;
+    }
+
+    return Math.max(0, end - System.currentTimeMillis());
+  }
+
+  /**
+   * Interrupting a validator doesn't stop a blocking socket read, so validators should give every remote call they
+   * make a timeout from this, and a call that hangs fails on its own once the validator's time is up.
+   *
+   * @param defaultMillis is the timeout the call would have without a deadline.
+   * @return the timeout to give a remote call, never more than the time the validator has left, and never 0, which
+   * most clients read as no timeout at all.
+   */
+  protected static int timeoutMillis(int defaultMillis) {
+    return (int) Math.max(1, Math.min(defaultMillis, remainingMillis()));
+  }
+
+  /**
+   * Validators are interrupted once they run past their deadline. Those making several remote calls should check this
+   * between them, and stop once it's true, since nobody is waiting for their results anymore.
+   */
+  protected static boolean isCancelled() {
+    return Thread.currentThread().isInterrupted();
+  }
 }
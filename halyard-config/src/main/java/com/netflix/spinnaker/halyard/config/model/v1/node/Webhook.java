@@ -22,7 +22,6 @@ import lombok.EqualsAndHashCode;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Data
 @EqualsAndHashCode(callSuper = false)
@@ -32,7 +31,7 @@ public abstract class Webhook<T extends Master> extends Node implements Cloneabl
 
   @Override
   public NodeIterator getChildren() {
-    return NodeIteratorFactory.makeListIterator(masters.stream().map(a -> (Node) a).collect(Collectors.toList()));
+    return NodeIteratorFactory.makeListIterator(masters);
   }
 
   @Override
@@ -41,8 +40,8 @@ public abstract class Webhook<T extends Master> extends Node implements Cloneabl
   }
 
   @Override
-  public boolean matchesLocally(NodeFilter filter) {
-    return NodeFilter.matches(filter.webhook, getNodeName());
+  public boolean matchesLocally(CompiledNodeFilter filter) {
+    return filter.matchesWebhook(getNodeName());
   }
 
   @Override
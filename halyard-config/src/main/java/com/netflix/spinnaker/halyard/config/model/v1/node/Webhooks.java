@@ -41,8 +41,8 @@ public class Webhooks extends Node implements Cloneable {
   }
 
   @Override
-  protected boolean matchesLocally(NodeFilter filter) {
-    return !filter.webhook.isEmpty();
+  protected boolean matchesLocally(CompiledNodeFilter filter) {
+    return filter.hasWebhook();
   }
 
   @Override
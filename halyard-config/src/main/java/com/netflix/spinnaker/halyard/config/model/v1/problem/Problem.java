@@ -16,8 +16,10 @@
 
 package com.netflix.spinnaker.halyard.config.model.v1.problem;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter;
 import java.util.List;
+import java.util.function.Supplier;
 import lombok.Getter;
 
 /**
@@ -82,8 +84,23 @@ public class Problem {
   /**
    * An optional list of alternative entries.
    */
-  @Getter
-  final private List<String> options;
+  private List<String> options;
+
+  /**
+   * Supplies the options the first time they're asked for, since finding them can be expensive and most problems are
+   * never rendered with their options.
+   */
+  @JsonIgnore
+  private Supplier<List<String>> optionsSupplier;
+
+  public synchronized List<String> getOptions() {
+    if (optionsSupplier != null) {
+      options = optionsSupplier.get();
+      optionsSupplier = null;
+    }
+
+    return options;
+  }
 
   /**
    * Indicates if this will cause the deployment to fail or not.
@@ -101,4 +118,9 @@ public class Problem {
     this.remediation = remediation;
     this.options = options;
   }
+
+  public Problem(Severity severity, NodeFilter filter, String message, String remediation, Supplier<List<String>> optionsSupplier) {
+    this(severity, filter, message, remediation, (List<String>) null);
+    this.optionsSupplier = optionsSupplier;
+  }
 }
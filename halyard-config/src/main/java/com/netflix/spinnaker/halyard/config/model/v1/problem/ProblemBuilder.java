@@ -18,6 +18,7 @@ package com.netflix.spinnaker.halyard.config.model.v1.problem;
 
 import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter;
 import java.util.List;
+import java.util.function.Supplier;
 import lombok.Setter;
 
 public class ProblemBuilder {
@@ -36,12 +37,33 @@ public class ProblemBuilder {
   @Setter
   List<String> options;
 
+  /**
+   * Supplies the options only once they're needed, if they weren't set directly.
+   */
+  @Setter
+  Supplier<List<String>> optionsSupplier;
+
   public ProblemBuilder(Problem.Severity severity, String message) {
     this.severity = severity;
     this.message = message;
   }
 
+  /**
+   * @return a copy of this problem with its options already found, so it no longer refers to the node they come from.
+   */
+  ProblemBuilder withResolvedOptions() {
+    ProblemBuilder result = new ProblemBuilder(severity, message);
+    result.filter = filter;
+    result.remediation = remediation;
+    result.options = options == null && optionsSupplier != null ? optionsSupplier.get() : options;
+    return result;
+  }
+
   public Problem build() {
+    if (options == null && optionsSupplier != null) {
+      return new Problem(severity, filter, message, remediation, optionsSupplier);
+    }
+
     return new Problem(severity, filter, message, remediation, options);
   }
 }
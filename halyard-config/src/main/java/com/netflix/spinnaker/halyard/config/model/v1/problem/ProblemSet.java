@@ -82,6 +82,14 @@ public class ProblemSet {
         .reduce(Problem.Severity.NONE, (a, b) -> a.compareTo(b) > 0 ? a : b);
   }
 
+  /**
+   * @param severity is the severity to compare all errors to that this problem set stores.
+   * @return true iff this problem set stores a problem more severe than the given severity.
+   */
+  public boolean exceedsSeverity(Problem.Severity severity) {
+    return maxSeverity().compareTo(severity) > 0;
+  }
+
   /**
    * This is can be used to ignore errors that user deems frivolous.
    *
@@ -91,7 +99,7 @@ public class ProblemSet {
    * @param severity is the severity to compare all errors to that this problem set stores.
    */
   void throwifSeverityExceeds(Problem.Severity severity) {
-    if (maxSeverity().compareTo(severity) > 0) {
+    if (exceedsSeverity(severity)) {
       throw new HalconfigException(problems);
     }
   }
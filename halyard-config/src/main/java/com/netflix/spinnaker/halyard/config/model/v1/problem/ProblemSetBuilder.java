@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.Setter;
 
 public class ProblemSetBuilder {
@@ -33,6 +34,13 @@ public class ProblemSetBuilder {
   @Setter(AccessLevel.PUBLIC)
   private Node node;
 
+  /**
+   * True iff some validation was given up on, so the problems collected don't reflect everything that was checked.
+   */
+  @Getter
+  @Setter(AccessLevel.PUBLIC)
+  private boolean incomplete;
+
   public ProblemBuilder addProblem(Problem.Severity severity, String message) {
     return addProblem(severity, message, null);
   }
@@ -43,7 +51,8 @@ public class ProblemSetBuilder {
       problemBuilder.setFilter(node.getFilter());
 
       if (field != null && !field.isEmpty()) {
-        problemBuilder.setOptions(node.fieldOptions(new ProblemSetBuilder(), field));
+        Node problemNode = node;
+        problemBuilder.setOptionsSupplier(() -> problemNode.fieldOptions(new ProblemSetBuilder(), field));
       }
     }
 
@@ -51,15 +60,47 @@ public class ProblemSetBuilder {
     return problemBuilder;
   }
 
+  /**
+   * Appends the problems another builder collected, e.g. while validating a single node, to the ones collected so far.
+   */
+  public ProblemSetBuilder merge(ProblemSetBuilder other) {
+    builders.addAll(other.builders);
+    incomplete |= other.incomplete;
+    return this;
+  }
+
+  /**
+   * @return a copy of the problems collected so far that doesn't refer to any node, so keeping it around doesn't keep
+   * the halconfig the problems were found in alive. Problems' options are found now rather than when they're needed.
+   */
+  public ProblemSetBuilder detached() {
+    ProblemSetBuilder result = new ProblemSetBuilder();
+    result.severity = severity;
+    result.incomplete = incomplete;
+    for (ProblemBuilder builder : builders) {
+      result.builders.add(builder.withResolvedOptions());
+    }
+
+    return result;
+  }
+
   public ProblemSet build() {
+    ProblemSet result = buildUnchecked();
+    result.throwifSeverityExceeds(severity);
+
+    return result;
+  }
+
+  /**
+   * Like build(), but returns the problems even when they exceed the severity, for callers that report problems rather
+   * than fail on them.
+   */
+  public ProblemSet buildUnchecked() {
     List<Problem> problems = builders
         .stream()
         .map(ProblemBuilder::build)
         .collect(Collectors.toList());
 
-    ProblemSet result = new ProblemSet(problems);
-    result.throwifSeverityExceeds(severity);
-
-    return result;
+    return new ProblemSet(problems);
   }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.model.v1.providers.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Config;
+import io.fabric8.kubernetes.client.internal.KubeConfigUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed kubeconfig files, shared by everything that reads them while validating or listing options for Kubernetes
+ * accounts. A file is only parsed again once its modification time or size changes.
+ *
+ * The returned configs are shared, and must not be modified.
+ */
+public class KubeconfigCache {
+  /**
+   * Most configs only refer to a handful of kubeconfig files, so this is only a backstop.
+   */
+  private static final int MAX_CACHED_KUBECONFIGS = 64;
+
+  private static final Map<String, CachedKubeconfig> cache = new ConcurrentHashMap<>();
+
+  public static Config parseConfig(String kubeconfigFile) throws IOException {
+    File file = new File(kubeconfigFile);
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    } catch (IOException e) {
+      // Let the parser report a missing or unreadable file the way it always has.
+      return KubeConfigUtils.parseConfig(file);
+    }
+
+    String key = file.getAbsolutePath();
+    CachedKubeconfig cached = cache.get(key);
+    if (cached != null && cached.matches(attributes)) {
+      return cached.config;
+    }
+
+    Config config = KubeConfigUtils.parseConfig(file);
+    if (cache.size() >= MAX_CACHED_KUBECONFIGS) {
+      cache.clear();
+    }
+
+    cache.put(key, new CachedKubeconfig(attributes.lastModifiedTime(), attributes.size(), config));
+    return config;
+  }
+
+  private static class CachedKubeconfig {
+    final FileTime lastModifiedTime;
+    final long size;
+    final Config config;
+
+    CachedKubeconfig(FileTime lastModifiedTime, long size, Config config) {
+      this.lastModifiedTime = lastModifiedTime;
+      this.size = size;
+      this.config = config;
+    }
+
+    boolean matches(BasicFileAttributes attributes) {
+      return lastModifiedTime.equals(attributes.lastModifiedTime()) && size == attributes.size();
+    }
+  }
+}
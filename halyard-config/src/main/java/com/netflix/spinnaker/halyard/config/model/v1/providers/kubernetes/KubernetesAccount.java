@@ -16,19 +16,20 @@
 
 package com.netflix.spinnaker.halyard.config.model.v1.providers.kubernetes;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.netflix.spinnaker.halyard.config.model.v1.node.Account;
 import com.netflix.spinnaker.halyard.config.model.v1.node.DeploymentConfiguration;
 import com.netflix.spinnaker.halyard.config.model.v1.node.LocalFile;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter;
+import com.netflix.spinnaker.halyard.config.model.v1.node.Provider;
 import com.netflix.spinnaker.halyard.config.model.v1.node.Validator;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder;
 import com.netflix.spinnaker.halyard.config.model.v1.providers.dockerRegistry.DockerRegistryProvider;
 import io.fabric8.kubernetes.api.model.Config;
 import io.fabric8.kubernetes.api.model.NamedContext;
-import io.fabric8.kubernetes.client.internal.KubeConfigUtils;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -54,6 +55,24 @@ public class KubernetesAccount extends Account implements Cloneable {
     }
   }
 
+  /**
+   * Validating this account checks that each docker registry it deploys from is configured.
+   */
+  @Override
+  @JsonIgnore
+  public List<NodeFilter> getDependencies() {
+    List<NodeFilter> result = new ArrayList<>();
+    if (dockerRegistries != null) {
+      for (DockerRegistryReference reference : dockerRegistries) {
+        result.add(getFilter()
+            .setProvider(Provider.ProviderType.DOCKERREGISTRY.getId())
+            .setAccount(reference.getAccountName()));
+      }
+    }
+
+    return result;
+  }
+
   @Override
   public void accept(ProblemSetBuilder psBuilder, Validator v) {
     v.validate(psBuilder, this);
@@ -62,8 +81,7 @@ public class KubernetesAccount extends Account implements Cloneable {
   protected List<String> contextOptions(ProblemSetBuilder psBuilder) {
     Config kubeconfig;
     try {
-      File kubeconfigFileOpen = new File(getKubeconfigFile());
-      kubeconfig = KubeConfigUtils.parseConfig(kubeconfigFileOpen);
+      kubeconfig = KubeconfigCache.parseConfig(getKubeconfigFile());
     } catch (IOException e) {
       psBuilder.addProblem(ERROR, e.getMessage());
       return null;
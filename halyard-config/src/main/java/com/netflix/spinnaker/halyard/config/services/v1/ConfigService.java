@@ -16,6 +16,7 @@
 
 package com.netflix.spinnaker.halyard.config.services.v1;
 
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigLayout;
 import com.netflix.spinnaker.halyard.config.config.v1.HalconfigParser;
 import com.netflix.spinnaker.halyard.config.errors.v1.config.IllegalConfigException;
 import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig;
@@ -46,4 +47,25 @@ public class ConfigService {
 
     return result;
   }
+
+  /**
+   * @return the content hash of the whole halconfig, which changes iff any part of it does.
+   */
+  public String getConfigHash() {
+    return halconfigParser.getNodeHashes().getHash(getConfig());
+  }
+
+  public HalconfigLayout getLayout() {
+    return halconfigParser.getLayout();
+  }
+
+  /**
+   * Migrates the halconfig to the given layout, leaving its contents unchanged.
+   *
+   * @param expectedGeneration is the generation the caller last read, or null to accept any generation.
+   * @return the generation of the migrated halconfig.
+   */
+  public long setLayout(HalconfigLayout layout, Long expectedGeneration) {
+    return halconfigParser.setLayout(layout, expectedGeneration).getGeneration();
+  }
 }
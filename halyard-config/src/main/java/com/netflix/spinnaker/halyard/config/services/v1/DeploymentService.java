@@ -16,6 +16,7 @@
 
 package com.netflix.spinnaker.halyard.config.services.v1;
 
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigParser;
 import com.netflix.spinnaker.halyard.config.errors.v1.config.ConfigNotFoundException;
 import com.netflix.spinnaker.halyard.config.errors.v1.config.IllegalConfigException;
 import com.netflix.spinnaker.halyard.config.model.v1.node.DeploymentConfiguration;
@@ -28,6 +29,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -42,6 +44,9 @@ public class DeploymentService {
   @Autowired
   ValidateService validateService;
 
+  @Autowired
+  HalconfigParser halconfigParser;
+
   public DeploymentConfiguration getDeploymentConfiguration(NodeFilter filter) {
     String deploymentName = filter.getDeployment();
     filter = filter.withAnyHalconfigFile();
@@ -67,6 +72,14 @@ public class DeploymentService {
     }
   }
 
+  /**
+   * @return the content hashes of the deployment and every node in it, keyed by their path from the deployment.
+   */
+  public Map<String, String> getDeploymentHashes(NodeFilter filter) {
+    DeploymentConfiguration deployment = getDeploymentConfiguration(filter);
+    return halconfigParser.getNodeHashes().getHashes(deployment);
+  }
+
   public List<DeploymentConfiguration> getAllDeploymentConfigurations() {
     NodeFilter filter = new NodeFilter().withAnyHalconfigFile().withAnyDeployment();
 
@@ -23,8 +23,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Component
@@ -39,36 +39,118 @@ public class LookupService {
    * @return
    */
   public List<Node> getMatchingNodesOfType(NodeFilter filter, Class<? extends Node> clazz) {
+    NodeIndex index = parser.getNodeIndex();
+    if (index != null) {
+      return index.getMatchingNodesOfType(filter, clazz);
+    }
+
+    // Changes being staged aren't indexed, so walk them instead.
     Halconfig halconfig = parser.getHalconfig(true);
 
-    return getMatchingNodes(halconfig, filter)
-        .stream()
-        .filter(clazz::isInstance)
-        .collect(Collectors.toList());
+    List<Node> result = new ArrayList<>();
+    CompiledNodeFilter compiled = filter.compile();
+    getMatchingNodes(halconfig, halconfig.matchesToRoot(compiled), compiled, clazz, result);
+    return result;
+  }
+
+  /**
+   * Like getMatchingNodesOfType, but answers several lookups at once, reading the same snapshot for all of them.
+   * @param filters are the filters to lookup by.
+   * @param classes are the classes of the node types we want to find, one per filter.
+   * @return the matching nodes of each lookup, in the order of the filters.
+   */
+  public List<List<Node>> getMatchingNodesOfTypes(List<NodeFilter> filters, List<Class<? extends Node>> classes) {
+    List<List<Node>> results = new ArrayList<>(filters.size());
+
+    NodeIndex index = parser.getNodeIndex();
+    if (index != null) {
+      for (int i = 0; i < filters.size(); i++) {
+        results.add(index.getMatchingNodesOfType(filters.get(i), classes.get(i)));
+      }
+
+      return results;
+    }
+
+    // Changes being staged aren't indexed, so walk them instead, once for all of the filters.
+    Halconfig halconfig = parser.getHalconfig(true);
+
+    CompiledNodeFilter[] compiled = new CompiledNodeFilter[filters.size()];
+    BitSet matched = new BitSet(filters.size());
+    for (int i = 0; i < filters.size(); i++) {
+      compiled[i] = filters.get(i).compile();
+      if (halconfig.matchesToRoot(compiled[i])) {
+        matched.set(i);
+      }
+
+      results.add(new ArrayList<>());
+    }
+
+    BitSet visited = new BitSet(filters.size());
+    visited.set(0, filters.size());
+    getMatchingNodes(halconfig, visited, matched, compiled, classes, results);
+    return results;
   }
 
   /**
    * If the filter represents a pruned tree, then this
    * @param node is the node whos children we want to find.
+   * @param matched is true iff the node matched the filter all the way to the root.
    * @param filter is the filter to lookup by.
-   * @return
+   * @param clazz is the class of the node type we want to find.
+   * @param result collects the matching nodes.
    */
-  private List<Node> getMatchingNodes(Node node, NodeFilter filter) {
-    log.trace("Checking for leaf nodes of node " + node.getNodeName());
-
-    List<Node> result = new ArrayList<>();
+  private void getMatchingNodes(Node node, boolean matched, CompiledNodeFilter filter, Class<? extends Node> clazz, List<Node> result) {
+    log.trace("Checking for leaf nodes of node {}", node.getNodeName());
 
-    NodeIterator children = node.getChildren();
+    if (matched) {
+      // Since this node matched all the way to the root, its children only have to match locally.
+      NodeIterator children = node.getChildren();
 
-    Node recurse = children.getNext(filter);
-    while (recurse != null) {
-      result.addAll(getMatchingNodes(recurse, filter));
-      recurse = children.getNext(filter);
+      Node recurse = children.getNextMatchingLocally(filter);
+      while (recurse != null) {
+        getMatchingNodes(recurse, true, filter, clazz, result);
+        recurse = children.getNextMatchingLocally(filter);
+      }
     }
 
     // If we have visited this node, it must have matched the filter.
-    result.add(node);
+    if (clazz.isInstance(node)) {
+      result.add(node);
+    }
+  }
 
-    return result;
+  /**
+   * Like the single filter walk, but tracks which filters each node was visited for.
+   * @param node is the node whos children we want to find.
+   * @param visited are the filters this node is visited for.
+   * @param matched are the filters this node matched all the way to the root.
+   * @param filters are the filters to lookup by.
+   * @param classes are the classes of the node types we want to find, one per filter.
+   * @param results collects the matching nodes of each filter.
+   */
+  private void getMatchingNodes(Node node, BitSet visited, BitSet matched, CompiledNodeFilter[] filters,
+      List<Class<? extends Node>> classes, List<List<Node>> results) {
+    log.trace("Checking for leaf nodes of node {}", node.getNodeName());
+
+    if (!matched.isEmpty()) {
+      NodeIterator children = node.getChildren();
+
+      Node recurse = children.getNext();
+      while (recurse != null) {
+        // As in the single filter walk, children only have to match locally the filters their parent matched.
+        BitSet childMatched = recurse.matchingLocally(filters, matched);
+        if (!childMatched.isEmpty()) {
+          getMatchingNodes(recurse, childMatched, childMatched, filters, classes, results);
+        }
+
+        recurse = children.getNext();
+      }
+    }
+
+    for (int i = visited.nextSetBit(0); i >= 0; i = visited.nextSetBit(i + 1)) {
+      if (classes.get(i).isInstance(node)) {
+        results.get(i).add(node);
+      }
+    }
   }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.services.v1;
+
+import com.netflix.spinnaker.halyard.config.errors.v1.config.IllegalConfigException;
+import com.netflix.spinnaker.halyard.config.model.v1.node.Node;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeQuery;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeQueryResult;
+import com.netflix.spinnaker.halyard.config.model.v1.problem.Problem.Severity;
+import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemBuilder;
+import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSet;
+import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Answers many lookups in a single pass over the halconfig, for clients that would otherwise read the config node by
+ * node.
+ */
+@Component
+public class QueryService {
+  @Autowired
+  LookupService lookupService;
+
+  @Autowired
+  ValidateService validateService;
+
+  /**
+   * Runs each query against the current halconfig. A query that finds nothing, or whose nodes have problems, reports
+   * them in its own result rather than failing the others. The nodes of every query that asked for validation are
+   * validated together, so a node matched by several queries is only validated once.
+   *
+   * @param queries are the queries to run, keyed by a name of the client's choosing.
+   * @return the result of each query, under the same key.
+   */
+  public Map<String, NodeQueryResult> query(Map<String, NodeQuery> queries) {
+    List<String> keys = new ArrayList<>(queries.keySet());
+    List<NodeFilter> filters = new ArrayList<>(keys.size());
+    List<Class<? extends Node>> classes = new ArrayList<>(keys.size());
+
+    for (String key : keys) {
+      NodeQuery query = queries.get(key);
+      if (query == null || query.getType() == null || query.getFilter() == null) {
+        throw new IllegalConfigException(
+            new ProblemBuilder(Severity.FATAL, "Query \"" + key + "\" needs both a filter and a node type")
+                .setRemediation("Set the query's type to one of DEPLOYMENT, PROVIDER, ACCOUNT, FEATURES, WEBHOOK or MASTER")
+                .build());
+      }
+
+      filters.add(query.getFilter().withAnyHalconfigFile());
+      classes.add(query.getType().getNodeClass());
+    }
+
+    List<List<Node>> matches = lookupService.getMatchingNodesOfTypes(filters, classes);
+
+    List<Integer> validated = new ArrayList<>();
+    for (int i = 0; i < keys.size(); i++) {
+      if (queries.get(keys.get(i)).isValidate() && !matches.get(i).isEmpty()) {
+        validated.add(i);
+      }
+    }
+
+    Map<Integer, ProblemSetBuilder> validations = new HashMap<>();
+    if (!validated.isEmpty()) {
+      List<ProblemSetBuilder> problems = validateService.validateMatchingFilters(
+          validated.stream().map(filters::get).collect(Collectors.toList()));
+      for (int j = 0; j < validated.size(); j++) {
+        validations.put(validated.get(j), problems.get(j));
+      }
+    }
+
+    Map<String, NodeQueryResult> result = new LinkedHashMap<>();
+    for (int i = 0; i < keys.size(); i++) {
+      NodeQuery query = queries.get(keys.get(i));
+      NodeFilter filter = filters.get(i);
+      List<Node> nodes = matches.get(i);
+
+      ProblemSet problemSet = new ProblemSet();
+      boolean failed = false;
+      if (nodes.isEmpty()) {
+        problemSet.add(new ProblemBuilder(Severity.FATAL,
+            "No matching " + query.getType().name().toLowerCase() + " found")
+            .setFilter(filter)
+            .build());
+        failed = true;
+      } else if (validations.containsKey(i)) {
+        problemSet = validations.get(i).buildUnchecked();
+        failed = problemSet.exceedsSeverity(query.getSeverity());
+      }
+
+      result.put(keys.get(i), new NodeQueryResult().setNodes(nodes).setProblemSet(problemSet).setFailed(failed));
+    }
+
+    return result;
+  }
+}
@@ -17,18 +17,40 @@
 package com.netflix.spinnaker.halyard.config.services.v1;
 
 import com.netflix.spinnaker.halyard.config.config.v1.HalconfigParser;
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigSnapshot;
+import com.netflix.spinnaker.halyard.config.model.v1.node.CompiledNodeFilter;
 import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig;
 import com.netflix.spinnaker.halyard.config.model.v1.node.Node;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeDiff;
 import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeHashes;
 import com.netflix.spinnaker.halyard.config.model.v1.node.NodeIterator;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.Problem.Severity;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSet;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder;
+import com.netflix.spinnaker.halyard.config.validate.v1.ValidationCache;
 import com.netflix.spinnaker.halyard.config.validate.v1.ValidatorCollection;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
 @Slf4j
 @Component
 public class ValidateService {
@@ -38,25 +60,303 @@ public class ValidateService {
   @Autowired
   ValidatorCollection validatorCollection;
 
+  @Autowired(required = false)
+  @Qualifier("validateExecutor")
+  ExecutorService validateExecutor;
+
+  @Autowired(required = false)
+  ValidationCache validationCache;
+
+  /**
+   * How many nodes a single validation run validates at once, including the one validated by the requesting thread.
+   */
+  @Value("${halconfig.validate.parallelism:8}")
+  int parallelism = 8;
+
+  /**
+   * How long a single validation run may take in total, or 0 to let it run for as long as it takes. Validators still
+   * running at that point are given up on, and those that haven't started are reported as skipped.
+   */
+  @Value("${halconfig.validate.timeoutSeconds:120}")
+  long timeoutSeconds = 120;
+
   ProblemSet validateMatchingFilter(NodeFilter filter, Severity severity) {
+    return validateMatchingFilters(Collections.singletonList(filter)).get(0).setSeverity(severity).build();
+  }
+
+  /**
+   * Validates the nodes matching each of several filters in a single walk of the halconfig and a single validation
+   * run, so a node that several filters match is only validated once.
+   *
+   * @param filters are the filters to validate the matching nodes of.
+   * @return the problems found for the nodes matching each filter, in the same order as the filters. These haven't
+   * been checked against any severity yet.
+   */
+  List<ProblemSetBuilder> validateMatchingFilters(List<NodeFilter> filters) {
     Halconfig halconfig = parser.getHalconfig(false);
-    ProblemSetBuilder psBuilder = new ProblemSetBuilder().setSeverity(severity);
-    recursiveValidate(psBuilder, halconfig, filter);
 
-    return psBuilder.build();
+    CompiledNodeFilter[] compiled = new CompiledNodeFilter[filters.size()];
+    BitSet matched = new BitSet(filters.size());
+    for (int i = 0; i < filters.size(); i++) {
+      compiled[i] = filters.get(i).compile();
+      if (halconfig.matchesToRoot(compiled[i])) {
+        matched.set(i);
+      }
+    }
+
+    // The root is validated for every filter, whether or not it matched.
+    BitSet visited = new BitSet(filters.size());
+    visited.set(0, filters.size());
+
+    List<Node> nodes = new ArrayList<>();
+    List<BitSet> visitedFor = new ArrayList<>();
+    collectMatchingNodes(nodes, visitedFor, halconfig, visited, matched, compiled);
+
+    // Each node's problems are collected separately, and merged in the order the nodes were visited in, so the
+    // problems are reported in the same order no matter which validations finish first.
+    NodeHashes hashes = parser.getNodeHashes();
+    boolean fresh = validationCache != null && validationCache.isFresh();
+    ValidationCache.Key[] keys = cacheKeys(nodes, halconfig, hashes);
+    boolean[] affected = fresh ? null : affectedNodes(nodes, halconfig, hashes);
+    ProblemSetBuilder[] problems = validateAll(nodes, keys, fresh, affected);
+
+    List<ProblemSetBuilder> result = new ArrayList<>(filters.size());
+    for (int i = 0; i < filters.size(); i++) {
+      result.add(new ProblemSetBuilder());
+    }
+
+    for (int n = 0; n < nodes.size(); n++) {
+      BitSet nodeFilters = visitedFor.get(n);
+      for (int i = nodeFilters.nextSetBit(0); i >= 0; i = nodeFilters.nextSetBit(i + 1)) {
+        result.get(i).merge(problems[n]);
+      }
+    }
+
+    return result;
   }
 
-  private void recursiveValidate(ProblemSetBuilder psBuilder, Node node, NodeFilter filter) {
-    log.info("Running all validators for node " + node.getNodeName() + " with class " + node.getClass().getCanonicalName());
+  /**
+   * Collects the nodes to validate for each filter, in pre-order.
+   *
+   * @param nodes collects each node visited for any filter, once.
+   * @param visitedFor collects the filters each of the nodes was visited for.
+   * @param node is the node being visited.
+   * @param visited are the filters this node is visited for.
+   * @param matched are the filters this node matched all the way to the root.
+   * @param filters are the filters to validate by.
+   */
+  private void collectMatchingNodes(List<Node> nodes, List<BitSet> visitedFor, Node node, BitSet visited, BitSet matched,
+      CompiledNodeFilter[] filters) {
+    nodes.add(node);
+    visitedFor.add(visited);
 
-    validatorCollection.runAllValidators(psBuilder, node);
+    if (matched.isEmpty()) {
+      return;
+    }
 
+    // Since this node matched all the way to the root, its children only have to match locally.
     NodeIterator children = node.getChildren();
+    if (matched.cardinality() == 1) {
+      // A single filter can skip the children it doesn't match without even binding them.
+      CompiledNodeFilter filter = filters[matched.nextSetBit(0)];
+      Node recurse = children.getNextMatchingLocally(filter);
+      while (recurse != null) {
+        collectMatchingNodes(nodes, visitedFor, recurse, matched, matched, filters);
+        recurse = children.getNextMatchingLocally(filter);
+      }
 
-    Node recurse = children.getNext(filter);
+      return;
+    }
+
+    Node recurse = children.getNext();
     while (recurse != null) {
-      recursiveValidate(psBuilder, recurse, filter);
-      recurse = children.getNext(filter);
+      BitSet childMatched = recurse.matchingLocally(filters, matched);
+      if (!childMatched.isEmpty()) {
+        collectMatchingNodes(nodes, visitedFor, recurse, childMatched, childMatched, filters);
+      }
+
+      recurse = children.getNext();
+    }
+  }
+
+  /**
+   * The root is never cached: its hash covers the whole halconfig, so it changes with every edit anyway.
+   *
+   * @return the keys each node's problems are cached under, with null for nodes that aren't cached, or null if
+   * nothing is.
+   */
+  private ValidationCache.Key[] cacheKeys(List<Node> nodes, Halconfig halconfig, NodeHashes hashes) {
+    if (validationCache == null) {
+      return null;
+    }
+
+    Map<NodeFilter, String> dependencyHashes = new HashMap<>();
+    ValidationCache.Key[] result = new ValidationCache.Key[nodes.size()];
+    for (int i = 0; i < nodes.size(); i++) {
+      Node node = nodes.get(i);
+      if (node instanceof Halconfig) {
+        continue;
+      }
+
+      List<String> dependencies = new ArrayList<>();
+      for (NodeFilter dependency : node.getDependencies()) {
+        dependencies.add(dependencyHashes.computeIfAbsent(dependency, d -> dependencyHash(halconfig, d, hashes)));
+      }
+
+      result[i] = validationCache.key(node, hashes.getHash(node), dependencies);
+    }
+
+    return result;
+  }
+
+  /**
+   * @return the content hashes of the nodes the filter names, or a marker if there are none.
+   */
+  private static String dependencyHash(Halconfig halconfig, NodeFilter dependency, NodeHashes hashes) {
+    List<Node> nodes = new ArrayList<>();
+    CompiledNodeFilter compiled = dependency.compile();
+    if (halconfig.matchesToRoot(compiled)) {
+      collectNodesWithFilter(nodes, halconfig, dependency, compiled);
+    }
+
+    if (nodes.isEmpty()) {
+      return "missing";
     }
+
+    return nodes.stream().map(hashes::getHash).collect(Collectors.joining(","));
+  }
+
+  /**
+   * Collects the nodes whose own filter is the given filter, e.g. the account a dependency refers to.
+   */
+  private static void collectNodesWithFilter(List<Node> nodes, Node node, NodeFilter filter, CompiledNodeFilter compiled) {
+    if (filter.equals(node.getFilter())) {
+      nodes.add(node);
+      return;
+    }
+
+    NodeIterator children = node.getChildren();
+    Node child = children.getNextMatchingLocally(compiled);
+    while (child != null) {
+      collectNodesWithFilter(nodes, child, filter, compiled);
+      child = children.getNextMatchingLocally(compiled);
+    }
+  }
+
+  /**
+   * While changes are being staged, only the nodes they touched, and the nodes that depend on those, need validating
+   * again. Everything else reports the problems last found for it, which the changes can't have made out of date.
+   *
+   * @return which nodes the staged changes may have affected, or null if no changes are being staged.
+   */
+  private boolean[] affectedNodes(List<Node> nodes, Halconfig halconfig, NodeHashes hashes) {
+    HalconfigSnapshot base = parser.getStagedChangesBase();
+    if (base == null) {
+      return null;
+    }
+
+    Set<NodeFilter> changed = NodeDiff.changedNodes(base.getHalconfig(), base.getNodeHashes(), halconfig, hashes);
+
+    boolean[] result = new boolean[nodes.size()];
+    for (int i = 0; i < nodes.size(); i++) {
+      Node node = nodes.get(i);
+      result[i] = changed.contains(node.getFilter()) || node.getDependencies().stream().anyMatch(changed::contains);
+    }
+
+    return result;
+  }
+
+  /**
+   * Runs all validators against each of the nodes, on up to parallelism threads at once. The calling thread always
+   * validates nodes too, so a run makes progress even while every shared thread is busy with other runs.
+   *
+   * Unless the request asked for fresh results, nodes whose problems are cached aren't validated again, and while
+   * changes are being staged, nodes they didn't affect report the last problems found for them however old those are.
+   * Nodes the staged changes affected, and nodes nothing is known about (e.g. just after a restart), are validated.
+   *
+   * @param nodes are the nodes to validate.
+   * @param keys are the keys each node's problems are cached under, or null if they aren't cached.
+   * @param fresh is true iff cached problems must not be reused.
+   * @param affected marks the nodes the staged changes may have affected, or is null if no changes are being staged.
+   * @return the problems found for each node, in the same order as the nodes.
+   */
+  private ProblemSetBuilder[] validateAll(List<Node> nodes, ValidationCache.Key[] keys, boolean fresh, boolean[] affected) {
+    ProblemSetBuilder[] result = new ProblemSetBuilder[nodes.size()];
+    AtomicInteger next = new AtomicInteger();
+    long deadline = timeoutSeconds > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds) : Long.MAX_VALUE;
+
+    CountDownLatch remaining = new CountDownLatch(nodes.size());
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    Runnable worker = () -> {
+      for (int i = next.getAndIncrement(); i < nodes.size(); i = next.getAndIncrement()) {
+        try {
+          // Once a node fails the run is over, so the nodes left are only counted off.
+          if (failure.get() == null) {
+            result[i] = validateNode(nodes.get(i), keys == null ? null : keys[i], fresh, affected != null, affected != null && affected[i], deadline);
+          }
+        } catch (Throwable t) {
+          failure.compareAndSet(null, t);
+        } finally {
+          remaining.countDown();
+        }
+      }
+    };
+
+    List<Future<?>> helpers = new ArrayList<>();
+    if (validateExecutor != null) {
+      int workers = Math.min(parallelism, nodes.size());
+      for (int w = 1; w < workers; w++) {
+        helpers.add(validateExecutor.submit(worker));
+      }
+    }
+
+    worker.run();
+
+    // The shared executor may be too busy to ever start some of the helpers, so rather than waiting on them, wait for
+    // every node to be validated by whichever threads claimed them, and then withdraw the helpers that never started.
+    try {
+      remaining.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for validation to finish", e);
+    } finally {
+      for (Future<?> helper : helpers) {
+        helper.cancel(false);
+      }
+    }
+
+    Throwable cause = failure.get();
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    } else if (cause != null) {
+      throw new IllegalStateException("Validation failed", cause);
+    }
+
+    return result;
+  }
+
+  private ProblemSetBuilder validateNode(Node node, ValidationCache.Key key, boolean fresh, boolean staged, boolean affected,
+      long deadline) {
+    ProblemSetBuilder nodeProblems = null;
+    if (key != null && !fresh && !affected) {
+      nodeProblems = staged ? validationCache.getLastKnown(key) : validationCache.get(key);
+    }
+
+    if (nodeProblems == null) {
+      if (log.isInfoEnabled()) {
+        log.info("Running all validators for node {} with class {}", node.getNodeName(), node.getClass().getCanonicalName());
+      }
+
+      nodeProblems = new ProblemSetBuilder();
+      validatorCollection.runAllValidators(nodeProblems, node, deadline);
+      if (key != null && !nodeProblems.isIncomplete()) {
+        validationCache.put(key, nodeProblems);
+      }
+    }
+
+    return nodeProblems;
   }
 }
@@ -41,7 +41,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -154,16 +153,7 @@ abstract public class SpinnakerComponent {
   List<String> nodeFiles(Node node) {
     List<String> files = new ArrayList<>();
 
-    Consumer<Node> fileFinder = n -> files.addAll(n.localFiles().stream().map(f -> {
-      try {
-        f.setAccessible(true);
-        return (String) f.get(n);
-      } catch (IllegalAccessException e) {
-        throw new RuntimeException("Failed to get local files for node " + n.getNodeName(), e);
-      } finally {
-        f.setAccessible(false);
-      }
-    }).filter(Objects::nonNull).collect(Collectors.toList()));
+    Consumer<Node> fileFinder = n -> files.addAll(n.localFilePaths());
     node.recursiveConsume(fileFinder);
 
     return files;
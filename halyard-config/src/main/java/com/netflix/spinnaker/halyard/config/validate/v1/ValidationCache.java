@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.validate.v1;
+
+import com.netflix.spinnaker.halyard.config.model.v1.node.Node;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter;
+import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder;
+import lombok.Data;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the problems found validating each node, so that validating it again before anything it depends on has
+ * changed doesn't repeat the validators' remote checks.
+ *
+ * A node's problems are keyed by where it sits in the halconfig, the content hash of its subtree, the content hashes of
+ * the nodes elsewhere in the halconfig it depends on (@see Node#getDependencies()), and the modification time, size,
+ * and identity of the local files it references. Each entry expires after the shortest TTL of the validators that produced it, as
+ * remote state (registries, clusters, cloud projects) can change without the halconfig changing. The TTL of a
+ * validator is read from halconfig.validate.cache.ttlSeconds.{validator class name}, falling back to
+ * halconfig.validate.cache.ttlSeconds.
+ *
+ * Separately, the last problems found at each place in the halconfig are remembered whether or not caching is enabled,
+ * and don't expire. They stand in for validating nodes that staged changes can't have affected, so that an edit only
+ * runs validators against what it changed (@see #getLastKnown(Key)).
+ */
+@Slf4j
+@Component
+public class ValidationCache {
+  private static final String TTL_PROPERTY = "halconfig.validate.cache.ttlSeconds";
+
+  private static final int MAX_ENTRIES = 4096;
+
+  @Getter
+  @Value("${halconfig.validate.cache.enabled:true}")
+  boolean enabled;
+
+  @Value("${" + TTL_PROPERTY + ":300}")
+  long defaultTtlSeconds;
+
+  @Autowired
+  Environment environment;
+
+  @Autowired
+  ValidatorCollection validatorCollection;
+
+  private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * The latest entry put for each place in the halconfig.
+   */
+  private final ConcurrentMap<NodeFilter, Entry> lastKnown = new ConcurrentHashMap<>();
+
+  private final ClassValue<Long> ttlMillis = new ClassValue<Long>() {
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Long computeValue(Class<?> type) {
+      long result = Long.MAX_VALUE;
+      for (Class<?> validatorClass : validatorCollection.getValidatorClasses((Class<? extends Node>) type)) {
+        long ttl = environment.getProperty(TTL_PROPERTY + "." + validatorClass.getSimpleName(), Long.class, defaultTtlSeconds);
+        result = Math.min(result, TimeUnit.SECONDS.toMillis(ttl));
+      }
+
+      // A node no validator applies to has nothing worth caching.
+      return result == Long.MAX_VALUE ? 0L : result;
+    }
+  };
+
+  /**
+   * Requests that only want fresh results still validate through the cache, so later requests benefit from them.
+   */
+  private final ThreadLocal<Boolean> fresh = new ThreadLocal<>();
+
+  public void setFresh(boolean fresh) {
+    this.fresh.set(fresh);
+  }
+
+  public void clearFresh() {
+    fresh.remove();
+  }
+
+  public boolean isFresh() {
+    return Boolean.TRUE.equals(fresh.get());
+  }
+
+  /**
+   * @param node is the node about to be validated.
+   * @param hash is the content hash of the node's subtree.
+   * @param dependencyHashes are the content hashes of the nodes it depends on, in the same order as its dependencies.
+   * @return the key its problems are cached under.
+   */
+  public Key key(Node node, String hash, List<String> dependencyHashes) {
+    return new Key(node.getClass(), node.getFilter(), hash, dependencyHashes, localFilesDigest(node));
+  }
+
+  /**
+   * @return the problems found validating the node this key was made for, or null if they aren't cached.
+   */
+  public ProblemSetBuilder get(Key key) {
+    if (!enabled || !key.isCacheable()) {
+      return null;
+    }
+
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+
+    if (entry.expiresAt <= System.currentTimeMillis()) {
+      entries.remove(key, entry);
+      return null;
+    }
+
+    log.debug("Reusing cached validation of {} node {}", key.nodeClass.getSimpleName(), key.filter);
+    return entry.problems;
+  }
+
+  /**
+   * @return the problems last found validating a node exactly like the one this key was made for, however long ago, or
+   * null if the last node validated in its place was different, or there wasn't one.
+   */
+  public ProblemSetBuilder getLastKnown(Key key) {
+    if (!key.isCacheable()) {
+      return null;
+    }
+
+    Entry entry = lastKnown.get(key.filter);
+    if (entry == null || !entry.key.equals(key)) {
+      return null;
+    }
+
+    log.debug("Reusing last known validation of {} node {}", key.nodeClass.getSimpleName(), key.filter);
+    return entry.problems;
+  }
+
+  public void put(Key key, ProblemSetBuilder problems) {
+    if (!key.isCacheable()) {
+      return;
+    }
+
+    long ttl = enabled ? ttlMillis.get(key.nodeClass) : 0;
+
+    // Problems refer to the nodes they were found on, which mustn't outlive their snapshot just because they're cached.
+    Entry entry = new Entry(key, System.currentTimeMillis() + ttl, problems.detached());
+
+    if (lastKnown.size() >= MAX_ENTRIES) {
+      lastKnown.clear();
+    }
+
+    lastKnown.put(key.filter, entry);
+
+    if (ttl <= 0) {
+      return;
+    }
+
+    if (entries.size() >= MAX_ENTRIES) {
+      long now = System.currentTimeMillis();
+      entries.values().removeIf(e -> e.expiresAt <= now);
+      if (entries.size() >= MAX_ENTRIES) {
+        entries.clear();
+      }
+    }
+
+    entries.put(key, entry);
+  }
+
+  /**
+   * Identifies the current contents of the node's local files by their attributes, the same way parsed kubeconfig
+   * files are (@see com.netflix.spinnaker.halyard.config.model.v1.providers.kubernetes.KubeconfigCache), so that
+   * checking the cache never reads the files themselves.
+   */
+  private static String localFilesDigest(Node node) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    for (String path : node.localFilePaths()) {
+      digest.update(path.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+        String stat = attributes.lastModifiedTime().toMillis() + ":" + attributes.size() + ":" + attributes.fileKey();
+        digest.update(stat.getBytes(StandardCharsets.UTF_8));
+      } catch (NoSuchFileException e) {
+        digest.update((byte) 1);
+      } catch (IOException | RuntimeException e) {
+        // The validators will report this file, and it should be checked again every time until they don't.
+        return null;
+      }
+
+      digest.update((byte) 0);
+    }
+
+    return DatatypeConverter.printHexBinary(digest.digest());
+  }
+
+  @Data
+  public static class Key {
+    final Class<?> nodeClass;
+    final NodeFilter filter;
+    final String hash;
+    final List<String> dependencyHashes;
+    final String localFiles;
+
+    boolean isCacheable() {
+      return hash != null && localFiles != null;
+    }
+  }
+
+  private static class Entry {
+    final Key key;
+    final long expiresAt;
+    final ProblemSetBuilder problems;
+
+    Entry(Key key, long expiresAt, ProblemSetBuilder problems) {
+      this.key = key;
+      this.expiresAt = expiresAt;
+      this.problems = problems;
+    }
+  }
+}
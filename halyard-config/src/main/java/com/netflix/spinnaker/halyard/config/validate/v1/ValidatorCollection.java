@@ -18,15 +18,29 @@ package com.netflix.spinnaker.halyard.config.validate.v1;
 
 import com.netflix.spinnaker.halyard.config.model.v1.node.Node;
 import com.netflix.spinnaker.halyard.config.model.v1.node.Validator;
+import com.netflix.spinnaker.halyard.config.model.v1.problem.Problem.Severity;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This collects all validators that have been defined so far, and tries to apply all matching ones to the input node.
@@ -37,6 +51,40 @@ public class ValidatorCollection {
   @Autowired(required = false)
   private List<Validator> validators = new ArrayList<>();
 
+  /**
+   * Runs validators that have a deadline, so that the thread waiting on them can give up once it passes. This is
+   * bounded, so a validator that finds every thread busy runs on the calling thread instead.
+   */
+  @Autowired(required = false)
+  @Qualifier("validatorExecutor")
+  ExecutorService validatorExecutor;
+
+  /**
+   * How long a single validator may run against a single node, or 0 to let it run for as long as it takes.
+   */
+  @Value("${halconfig.validate.validatorTimeoutSeconds:30}")
+  long validatorTimeoutSeconds = 30;
+
+  private static final MethodType VALIDATE_TYPE = MethodType.methodType(void.class, ProblemSetBuilder.class, Node.class);
+
+  /**
+   * For each node class, the validate() methods that apply to it, already bound to their validators. This is worked
+   * out the first time a node of each class is validated, so validating a node only invokes the validators that apply.
+   */
+  private final ClassValue<List<BoundValidator>> dispatchTable = new ClassValue<List<BoundValidator>>() {
+    @Override
+    protected List<BoundValidator> computeValue(Class<?> type) {
+      List<BoundValidator> result = new ArrayList<>();
+      for (Validator validator : validators) {
+        addMatchingValidators(result, validator, validateMethods(validator.getClass()), type);
+      }
+
+      log.trace("Node class {} has {} matching validators", type.getSimpleName(), result.size());
+
+      return Collections.unmodifiableList(result);
+    }
+  };
+
   /**
    * Runs every validator defined against the given node.
    *
@@ -46,46 +94,168 @@ public class ValidatorCollection {
    * @return # of validators run (for logging purposes).
    */
   public int runAllValidators(ProblemSetBuilder psBuilder, Node node) {
+    return runAllValidators(psBuilder, node, Long.MAX_VALUE);
+  }
+
+  /**
+   * Runs every validator defined against the given node, giving up on any validator that doesn't finish within either
+   * its own timeout or the deadline. A validator that is given up on is interrupted, reported as a problem, and marks
+   * psBuilder incomplete; the remaining validators still run, unless the deadline has passed, in which case the node
+   * gets a single problem saying how many of its validators never ran.
+   *
+   * @param psBuilder contains the problems encountered during validation so far.
+   * @param node is the node being validated.
+   * @param deadline is the time (as in System.currentTimeMillis()) by which all validation must be done, or
+   *                 Long.MAX_VALUE if there is none.
+   *
+   * @return # of validators run (for logging purposes).
+   */
+  public int runAllValidators(ProblemSetBuilder psBuilder, Node node, long deadline) {
     psBuilder.setNode(node);
+    List<BoundValidator> validators = dispatchTable.get(node.getClass());
     int validatorRuns = 0;
-    for (Validator validator : validators) {
-      validatorRuns += runMatchingValidators(psBuilder, validator, node, node.getClass());
+    for (int i = 0; i < validators.size(); i++) {
+      if (deadline != Long.MAX_VALUE && System.currentTimeMillis() >= deadline) {
+        psBuilder.addProblem(Severity.ERROR, "Validation ran out of time before " + (validators.size() - i) + " of "
+            + validators.size() + " validators could run.")
+            .setRemediation("Validate fewer parts of your config at once, or raise halconfig.validate.timeoutSeconds.");
+        psBuilder.setIncomplete(true);
+        break;
+      }
+
+      if (runValidator(psBuilder, validators.get(i), node, deadline)) {
+        validatorRuns++;
+      }
     }
 
-    log.info("Total validators run for node " + node.getClass() + " == " + validatorRuns);
+    log.info("Total validators run for node {} == {}", node.getClass(), validatorRuns);
 
     return validatorRuns;
   }
 
+  private boolean runValidator(ProblemSetBuilder psBuilder, BoundValidator validator, Node node, long deadline) {
+    long timeout = validatorTimeoutSeconds > 0 ? TimeUnit.SECONDS.toMillis(validatorTimeoutSeconds) : Long.MAX_VALUE;
+    if (deadline != Long.MAX_VALUE) {
+      timeout = Math.min(timeout, Math.max(1, deadline - System.currentTimeMillis()));
+    }
+
+    if (timeout == Long.MAX_VALUE) {
+      return invoke(psBuilder, validator, node, Long.MAX_VALUE);
+    }
+
+    long validatorDeadline = System.currentTimeMillis() + timeout;
+    if (validatorExecutor == null) {
+      return invoke(psBuilder, validator, node, validatorDeadline);
+    }
+
+    // The validator gets its own problems, so nothing it adds after it's given up on is reported.
+    ProblemSetBuilder validatorProblems = new ProblemSetBuilder().setNode(node);
+    Future<Boolean> result;
+    try {
+      result = validatorExecutor.submit(() -> invoke(validatorProblems, validator, node, validatorDeadline));
+    } catch (RejectedExecutionException e) {
+      // Every validator thread is busy, most likely on calls that have yet to time out. The validator's remote calls
+      // are bounded by its deadline too, so it's run here rather than starting yet another thread.
+      log.debug("No validator thread free for {}, running it on {}", validator.validatorClass, Thread.currentThread().getName());
+      return invoke(psBuilder, validator, node, validatorDeadline);
+    }
+
+    try {
+      boolean ran = result.get(timeout, TimeUnit.MILLISECONDS);
+      psBuilder.merge(validatorProblems);
+      return ran;
+    } catch (TimeoutException e) {
+      result.cancel(true);
+      log.warn("Validator {} for node {} timed out after {}ms", validator.validatorClass, node.getNodeName(), timeout);
+      psBuilder.addProblem(Severity.ERROR, validator.validatorClass.getSimpleName() + " timed out after " + timeout + "ms.")
+          .setRemediation("Check that everything this part of your config refers to is reachable from Halyard, or raise halconfig.validate.validatorTimeoutSeconds.");
+      psBuilder.setIncomplete(true);
+      return false;
+    } catch (InterruptedException e) {
+      result.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for " + validator.validatorClass.getSimpleName(), e);
+    } catch (ExecutionException e) {
+      // invoke() already handles anything the validator throws.
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static boolean invoke(ProblemSetBuilder psBuilder, BoundValidator validator, Node node, long deadline) {
+    return Validator.runWithDeadline(deadline, () -> {
+      try {
+        validator.handle.invokeExact(psBuilder, node);
+        return true;
+      } catch (Throwable e) {
+        log.warn("Failed to invoke validate() on " + validator.validatorClass + " for node " + validator.nodeClass + " with cause " + e, e);
+        return false;
+      }
+    });
+  }
+
   /**
-   * Walk up the object hierarchy, running this validator whenever possible. The idea is, perhaps we were passed a
+   * @param nodeClass is the class of node being validated.
+   * @return the classes of the validators run against nodes of that class, in the order they are run.
+   */
+  public List<Class<?>> getValidatorClasses(Class<? extends Node> nodeClass) {
+    List<Class<?>> result = new ArrayList<>();
+    for (BoundValidator validator : dispatchTable.get(nodeClass)) {
+      result.add(validator.validatorClass);
+    }
+
+    return result;
+  }
+
+  /**
+   * Walk up the object hierarchy, adding this validator whenever it applies. The idea is, perhaps we were passed a
    * Kubernetes account, and want to run both the standard Kubernetes account validator to see if the kubeconfig is valid,
    * as well as the super-classes Account validator to see if the account name is valid.
    *
-   * @param psBuilder contains the list of problems encountered.
-   * @param validator is the validator to be run.
-   * @param node is the subject of validation.
+   * @param result collects the validate() methods that apply, in the order they are run.
+   * @param validator is the validator being matched.
+   * @param methods are the validator's public validate() methods, by the class of node they validate.
    * @param c is some super(inclusive) class of node.
-   *
-   * @return # of validators run (for logging purposes).
    */
-  private int runMatchingValidators(ProblemSetBuilder psBuilder, Validator validator, Node node, Class c) {
-    int result = 0;
+  private static void addMatchingValidators(List<BoundValidator> result, Validator validator, Map<Class<?>, Method> methods, Class<?> c) {
+    if (c == null || c == Node.class) {
+      return;
+    }
 
-    if (c == Node.class) {
-      return result;
+    Method m = methods.get(c);
+    if (m != null) {
+      try {
+        m.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflect(m).bindTo(validator).asType(VALIDATE_TYPE);
+        result.add(new BoundValidator(handle, validator.getClass(), c));
+      } catch (IllegalAccessException | SecurityException e) {
+        log.warn("Failed to resolve validate() on " + validator.getClass() + " for node " + c + " with cause " + e, e);
+      }
     }
 
-    try {
-      Method m = validator.getClass().getMethod("validate", ProblemSetBuilder.class, c);
-      m.invoke(validator, psBuilder, node);
-      result = 1;
-    } catch (NoSuchMethodException e) {
-      // Do nothing, odds are most validators don't validate every class.
-    } catch (InvocationTargetException | IllegalAccessException e) {
-      log.warn("Failed to invoke validate() on " + validator.getClass() + " for node " + c + " with cause " + e.getCause(), e);
+    addMatchingValidators(result, validator, methods, c.getSuperclass());
+  }
+
+  private static Map<Class<?>, Method> validateMethods(Class<?> validatorClass) {
+    Map<Class<?>, Method> result = new HashMap<>();
+    for (Method method : validatorClass.getMethods()) {
+      Class<?>[] parameters = method.getParameterTypes();
+      if (method.getName().equals("validate") && parameters.length == 2 && parameters[0] == ProblemSetBuilder.class) {
+        result.put(parameters[1], method);
+      }
     }
 
-    return runMatchingValidators(psBuilder, validator, node, c.getSuperclass()) + result;
+    return result;
+  }
+
+  private static class BoundValidator {
+    final MethodHandle handle;
+    final Class<?> validatorClass;
+    final Class<?> nodeClass;
+
+    BoundValidator(MethodHandle handle, Class<?> validatorClass, Class<?> nodeClass) {
+      this.handle = handle;
+      this.validatorClass = validatorClass;
+      this.nodeClass = nodeClass;
+    }
   }
 }
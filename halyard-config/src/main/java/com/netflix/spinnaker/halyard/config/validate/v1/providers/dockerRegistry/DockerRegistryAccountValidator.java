@@ -30,6 +30,11 @@ import org.springframework.stereotype.Component;
 
 @Component
 public class DockerRegistryAccountValidator extends Validator<DockerRegistryAccount> {
+  /**
+   * Clouddriver's own timeout for calls to a registry.
+   */
+  private static final int DEFAULT_CLIENT_TIMEOUT_MILLIS = 60000;
+
   @Override
   public void validate(ProblemSetBuilder p, DockerRegistryAccount n) {
     String resolvedPassword = null;
@@ -92,6 +97,7 @@ public class DockerRegistryAccountValidator extends Validator<DockerRegistryAcco
           .passwordFile(n.getPasswordFile())
           .dockerconfigFile(n.getDockerconfigFile())
           .username(n.getUsername())
+          .clientTimeoutMillis(timeoutMillis(DEFAULT_CLIENT_TIMEOUT_MILLIS))
           .build();
     } catch (Exception e) {
       p.addProblem(Severity.ERROR, "Failed to instantiate docker credentials for account \"" + n.getName() + "\".");
@@ -105,6 +111,10 @@ public class DockerRegistryAccountValidator extends Validator<DockerRegistryAcco
         .setRemediation("Make sure that the " + credentials.getV2Endpoint() + " is reachable, and that your credentials are correct.");
     }
 
+    if (isCancelled()) {
+      return;
+    }
+
     try {
       if (n.getRepositories() == null || n.getRepositories().size() == 0) {
         DockerRegistryCatalog catalog = credentials.getCredentials().getClient().getCatalog();
@@ -17,6 +17,8 @@
 package com.netflix.spinnaker.halyard.config.validate.v1.providers.google;
 
 import com.amazonaws.util.IOUtils;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.services.compute.Compute;
 import com.netflix.spinnaker.clouddriver.google.ComputeVersion;
 import com.netflix.spinnaker.clouddriver.google.security.GoogleNamedAccountCredentials;
 import com.netflix.spinnaker.halyard.config.model.v1.node.Validator;
@@ -73,14 +75,28 @@ public class GoogleAccountValidator extends Validator<GoogleAccount> {
       return;
     }
 
-    try {
-      credentials.getCompute().projects().get(project);
+    loadProject(p, credentials.getCompute(), project);
 
-      for (String imageProject : n.getImageProjects()) {
-        credentials.getCompute().projects().get(imageProject);
+    for (String imageProject : n.getImageProjects()) {
+      if (isCancelled()) {
+        return;
       }
+
+      loadProject(p, credentials.getCompute(), imageProject);
+    }
+  }
+
+  /**
+   * Fetches the project, with timeouts that don't outlast this validator's deadline.
+   */
+  private static void loadProject(ProblemSetBuilder p, Compute compute, String project) {
+    try {
+      HttpRequest request = compute.projects().get(project).buildHttpRequest();
+      request.setConnectTimeout(timeoutMillis(request.getConnectTimeout()));
+      request.setReadTimeout(timeoutMillis(request.getReadTimeout()));
+      request.execute().disconnect();
     } catch (IOException e) {
-      p.addProblem(Severity.ERROR, "Failed to load project \"" + n.getProject() + "\": " + e.getMessage() + ".");
+      p.addProblem(Severity.ERROR, "Failed to load project \"" + project + "\": " + e.getMessage() + ".");
     }
   }
 }
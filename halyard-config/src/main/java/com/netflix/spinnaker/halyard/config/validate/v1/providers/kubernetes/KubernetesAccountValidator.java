@@ -24,15 +24,14 @@ import com.netflix.spinnaker.halyard.config.model.v1.node.Validator;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder;
 import com.netflix.spinnaker.halyard.config.model.v1.providers.dockerRegistry.DockerRegistryProvider;
 import com.netflix.spinnaker.halyard.config.model.v1.providers.kubernetes.DockerRegistryReference;
+import com.netflix.spinnaker.halyard.config.model.v1.providers.kubernetes.KubeconfigCache;
 import com.netflix.spinnaker.halyard.config.model.v1.providers.kubernetes.KubernetesAccount;
 import io.fabric8.kubernetes.api.model.NamedContext;
 import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.internal.KubeConfigUtils;
 import org.springframework.stereotype.Component;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
@@ -74,8 +73,7 @@ public class KubernetesAccountValidator extends Validator<KubernetesAccount> {
 
     // TODO(lwander) find a good resource / list of resources for generating kubeconfig files to link to here.
     try {
-      File kubeconfigFileOpen = new File(kubeconfigFile);
-      kubeconfig = KubeConfigUtils.parseConfig(kubeconfigFileOpen);
+      kubeconfig = KubeconfigCache.parseConfig(kubeconfigFile);
     } catch (IOException e) {
       psBuilder.addProblem(ERROR, e.getMessage());
       return;
@@ -106,8 +104,10 @@ public class KubernetesAccountValidator extends Validator<KubernetesAccount> {
       }
     }
 
-    if (smoketest) {
+    if (smoketest && !isCancelled()) {
       Config config = KubernetesConfigParser.parse(kubeconfigFile, context, cluster, user, namespaces);
+      config.setConnectionTimeout(timeoutMillis(config.getConnectionTimeout()));
+      config.setRequestTimeout(timeoutMillis(config.getRequestTimeout()));
       KubernetesClient client = new DefaultKubernetesClient(config);
 
       try {
@@ -115,6 +115,8 @@ public class KubernetesAccountValidator extends Validator<KubernetesAccount> {
       } catch (Exception e) {
         psBuilder.addProblem(ERROR, "Unable to communicate with your Kubernetes cluster: " + e.getMessage() + ".")
             .setRemediation("Verify that your kubernetes credentials work manually using \"kubectl\".");
+      } finally {
+        client.close();
       }
     }
   }
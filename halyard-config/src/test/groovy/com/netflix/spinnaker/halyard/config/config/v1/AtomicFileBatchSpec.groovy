@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1
+
+import spock.lang.Specification
+
+class AtomicFileBatchSpec extends Specification {
+  File directory
+
+  void setup() {
+    directory = File.createTempDir()
+  }
+
+  void cleanup() {
+    directory.deleteDir()
+  }
+
+  void "Commit every file in a batch"() {
+    setup:
+    File existing = new File(directory, "a.yml")
+    existing.text = "old"
+    long commits = AtomicFileMetrics.commits
+    AtomicFileBatch batch = new AtomicFileBatch()
+
+    when:
+    batch.write(existing.toPath(), "a")
+    batch.write(new File(directory, "nested/b.yml").toPath(), "b")
+
+    then:
+    existing.text == "old"
+    !new File(directory, "nested/b.yml").exists()
+
+    when:
+    batch.commit()
+    batch.close()
+
+    then:
+    existing.text == "a"
+    new File(directory, "nested/b.yml").text == "b"
+    directory.list() as Set == ["a.yml", "nested"] as Set
+    AtomicFileMetrics.commits == commits + 1
+  }
+
+  void "Discard an uncommitted batch"() {
+    setup:
+    File existing = new File(directory, "a.yml")
+    existing.text = "old"
+    AtomicFileBatch batch = new AtomicFileBatch()
+
+    when:
+    batch.write(existing.toPath(), "new")
+    batch.close()
+
+    then:
+    existing.text == "old"
+    directory.list() as List == ["a.yml"]
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.config.config.v1
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException
+import com.netflix.spinnaker.halyard.config.errors.v1.config.ParseConfigException
+import com.netflix.spinnaker.halyard.config.model.v1.node.DeploymentConfiguration
+import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeIterator
+import org.yaml.snakeyaml.DumperOptions
+import org.yaml.snakeyaml.Yaml
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class HalconfigCodecSpec extends Specification {
+  HalconfigCodec codec
+  ObjectMapper objectMapper
+  Yaml yaml
+
+  void setup() {
+    codec = new HalconfigCodec()
+    objectMapper = new ObjectMapper()
+
+    DumperOptions options = new DumperOptions()
+    options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK)
+    options.setDefaultScalarStyle(DumperOptions.ScalarStyle.PLAIN)
+    yaml = new Yaml(options)
+  }
+
+  static String deploymentConfig(String name, int accounts) {
+    StringBuilder result = new StringBuilder("""
+- name: $name
+  version: 1.0.0
+  features:
+    chaos: true
+  providers:
+    kubernetes:
+      enabled: true
+      accounts:
+""")
+    accounts.times { i ->
+      result.append("""
+      - name: $name-k8s-$i
+        context: ctx-$i
+        namespaces:
+        - ns-$i
+        dockerRegistries:
+        - accountName: $name-docker-$i
+""")
+    }
+
+    result.append("""
+    dockerRegistry:
+      enabled: true
+      accounts:
+""")
+    accounts.times { i ->
+      result.append("""
+      - name: $name-docker-$i
+        address: index.docker.io
+        repositories:
+        - library/nginx
+""")
+    }
+
+    result.append("""
+    google:
+      enabled: false
+      accounts:
+""")
+    accounts.times { i ->
+      result.append("""
+      - name: $name-google-$i
+        project: project-$i
+        jsonPath: /a/b/c/$i
+""")
+    }
+
+    return result.toString()
+  }
+
+  static String halconfig(int deployments, int accounts) {
+    StringBuilder result = new StringBuilder("""
+halyardVersion: 0.1.0
+currentDeployment: deployment-0
+deploymentConfigurations:
+""")
+    deployments.times { i ->
+      result.append(deploymentConfig("deployment-$i", accounts))
+    }
+
+    return result.toString()
+  }
+
+  static InputStream stream(String contents) {
+    return new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8))
+  }
+
+  Halconfig legacyRead(String contents) {
+    return objectMapper.convertValue(yaml.load(stream(contents)), Halconfig.class)
+  }
+
+  String legacyWrite(Halconfig halconfig) {
+    return yaml.dump(objectMapper.convertValue(halconfig, Map.class))
+  }
+
+  void "Read the same halconfig as Yaml.load()"() {
+    setup:
+    String config = halconfig(2, 3)
+
+    when:
+    Halconfig out = codec.read(stream(config), Halconfig.class)
+
+    then:
+    out == legacyRead(config)
+    out.deploymentConfigurations.size() == 2
+    out.deploymentConfigurations[1].providers.kubernetes.accounts[2].name == "deployment-1-k8s-2"
+  }
+
+  void "Write the same YAML as Yaml.dump()"() {
+    setup:
+    Halconfig halconfig = legacyRead(halconfig(2, 3))
+
+    when:
+    String out = codec.write(halconfig)
+
+    then:
+    out == legacyWrite(halconfig)
+  }
+
+  void "Read an empty halconfig as null"() {
+    when:
+    Halconfig out = codec.read(stream(""), Halconfig.class)
+
+    then:
+    out == null
+  }
+
+  void "Reject unrecognized properties"() {
+    setup:
+    String config = """
+halyardVersion: 0.1.0
+balyardVersion: 0.1.0
+"""
+
+    when:
+    codec.read(stream(config), Halconfig.class)
+
+    then:
+    UnrecognizedPropertyException ex = thrown()
+    ex.message.contains("balyardVersion")
+  }
+
+  void "Reject unrecognized properties in a deployment once it's bound"() {
+    setup:
+    String config = """
+halyardVersion: 0.1.0
+deploymentConfigurations:
+- name: default
+  providers:
+    kubernetes:
+      acounts: []
+"""
+
+    when:
+    Halconfig out = codec.read(stream(config), Halconfig.class)
+
+    then:
+    notThrown(UnrecognizedPropertyException)
+
+    when:
+    out.deploymentConfigurations[0]
+
+    then:
+    ParseConfigException ex = thrown()
+    ex.problems.problems[0].message.contains("acounts")
+  }
+
+  void "Only bind the deployments a filter selects"() {
+    setup:
+    String config = halconfig(3, 2) + """
+- name: broken
+  acounts: []
+"""
+    Halconfig out = codec.read(stream(config), Halconfig.class)
+    out.path = "config"
+    out.parentify()
+
+    when:
+    NodeIterator children = out.getChildren()
+    DeploymentConfiguration deployment = children.getNext(new NodeFilter().withAnyHalconfigFile().setDeployment("deployment-1"))
+
+    then:
+    deployment.name == "deployment-1"
+    deployment.parent.is(out)
+    children.getNext(new NodeFilter().withAnyHalconfigFile().setDeployment("deployment-1")) == null
+  }
+
+  void "Write unbound deployments back out unchanged"() {
+    setup:
+    String config = halconfig(2, 2)
+    Halconfig out = codec.read(stream(config), Halconfig.class)
+
+    expect:
+    codec.read(stream(codec.write(out)), Halconfig.class) == legacyRead(config)
+  }
+
+  void "Write YAML that only differs from Yaml.dump() in quoting strings that look like booleans"() {
+    setup:
+    Halconfig halconfig = legacyRead("""
+halyardVersion: 0.1.0
+currentDeployment: 'true'
+deploymentConfigurations:
+- name: 'true'
+  version: 'false'
+  providers:
+    dockerRegistry:
+      enabled: true
+      accounts:
+      - name: 'true'
+        address: 'https://index.docker.io: 443'
+        email: 'a #comment'
+""")
+
+    when:
+    List<String> out = codec.write(halconfig).readLines()
+    List<String> legacy = legacyWrite(halconfig).readLines()
+
+    then: "Yaml.dump() single-quotes such strings, where the codec double-quotes them; every other line is the same"
+    out.size() == legacy.size()
+    def differences = [out, legacy].transpose().findAll { String line, String legacyLine -> line != legacyLine }
+    differences.size() == 4
+    differences.every { String line, String legacyLine ->
+      line.replace('"', "'") == legacyLine && (legacyLine.endsWith("'true'") || legacyLine.endsWith("'false'"))
+    }
+
+    and: "both read back as the same halconfig"
+    codec.read(stream(codec.write(halconfig)), Halconfig.class) == halconfig
+    legacyRead(legacyWrite(halconfig)) == halconfig
+  }
+
+  @IgnoreIf({ !System.getProperty("halyard.benchmark") })
+  void "Reading and writing a large halconfig by streaming is faster than through Yaml.load() and Yaml.dump()"() {
+    setup:
+    String config = halconfig(40, 25)
+    int iterations = 20
+    Halconfig parsed = codec.read(stream(config), Halconfig.class)
+
+    // Warm up both paths before measuring.
+    5.times {
+      legacyWrite(legacyRead(config))
+      codec.write(codec.read(stream(config), Halconfig.class))
+    }
+
+    when:
+    long legacyReadNanos = time(iterations) { legacyRead(config) }
+    long streamingReadNanos = time(iterations) { codec.read(stream(config), Halconfig.class) }
+    long legacyWriteNanos = time(iterations) { legacyWrite(parsed) }
+    long streamingWriteNanos = time(iterations) { codec.write(parsed) }
+
+    then:
+    streamingReadNanos < legacyReadNanos
+    streamingWriteNanos < legacyWriteNanos
+  }
+
+  static long time(int iterations, Closure c) {
+    long start = System.nanoTime()
+    iterations.times { c() }
+    return (System.nanoTime() - start).intdiv(iterations)
+  }
+}
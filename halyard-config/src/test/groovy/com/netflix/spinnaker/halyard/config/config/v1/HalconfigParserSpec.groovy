@@ -18,9 +18,17 @@ package com.netflix.spinnaker.halyard.config.config.v1
 
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException
+import com.netflix.spinnaker.halyard.config.errors.v1.HalconfigException
+import com.netflix.spinnaker.halyard.config.errors.v1.config.ParseConfigException
+import com.netflix.spinnaker.halyard.config.errors.v1.config.StaleConfigException
+import com.netflix.spinnaker.halyard.config.model.v1.node.DeploymentConfiguration
 import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig
-import org.yaml.snakeyaml.Yaml
+import com.netflix.spinnaker.halyard.config.model.v1.node.Node
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeDiff
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeHashes
 import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
 
 import java.nio.charset.StandardCharsets
 
@@ -32,7 +40,6 @@ class HalconfigParserSpec extends Specification {
 
   void setup() {
     parser = new HalconfigParser()
-    parser.yamlParser = new Yaml()
     parser.objectMapper = new ObjectMapper()
   }
 
@@ -73,4 +80,607 @@ balyardVersion: $HALYARD_VERSION
     UnrecognizedPropertyException ex = thrown()
     ex.message.contains("balyardVersion")
   }
+
+  void "Report a mistake in a deployment once it's needed"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: a
+deploymentConfigurations:
+- name: a
+  version: $SPINNAKER_VERSION
+- name: b
+  providers:
+    kubernetes:
+      acounts: []
+"""
+    parser.halconfigPath = file.absolutePath
+
+    when:
+    Halconfig halconfig = parser.getHalconfig(true)
+
+    then:
+    halconfig.deploymentConfigurations[0].version == SPINNAKER_VERSION
+
+    when:
+    halconfig.deploymentConfigurations[1]
+
+    then:
+    ParseConfigException ex = thrown()
+    ex.problems.problems[0].message.contains("acounts")
+  }
+
+  void "Looking up one deployment leaves the others unbound"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    File journalFile = new File(file.absolutePath + ".journal")
+    journalFile.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: a
+deploymentConfigurations:
+- name: a
+  version: 1.0.0
+- name: b
+  version: 1.0.0
+- name: c
+  version: 1.0.0
+"""
+    parser.halconfigPath = file.absolutePath
+    parser.halconfigJournal = journal(file)
+    NodeFilter filter = new NodeFilter().withAnyHalconfigFile().setDeployment("b")
+
+    when:
+    parser.beginChanges()
+    parser.getHalconfig(true).deploymentConfigurations[1].version = "1.1.0"
+    parser.saveConfig()
+    HalconfigParser restarted = restartWithJournal(file)
+    List<Node> found = restarted.getNodeIndex().getMatchingNodesOfType(filter, DeploymentConfiguration.class)
+    def deployments = restarted.getHalconfig(true).deploymentConfigurations
+
+    then: "only the deployment looked up is bound"
+    found*.nodeName == ["b"]
+    deployments.getSource(0) != null
+    deployments.getSource(1) == null
+    deployments.getSource(2) != null
+
+    when:
+    restarted.beginChanges()
+    restarted.getHalconfig(true).deploymentConfigurations[2].version = "1.2.0"
+    restarted.saveConfig()
+    deployments = restarted.getHalconfig(true).deploymentConfigurations
+
+    then:
+    deployments.getSource(0) != null
+    restartWithJournal(file).getHalconfig(true).deploymentConfigurations*.version == ["1.0.0", "1.1.0", "1.2.0"]
+  }
+
+  void "Reuse the parsed halconfig while the file is unchanged"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT
+deploymentConfigurations:
+- name: $CURRENT_DEPLOYMENT
+  version: $SPINNAKER_VERSION
+"""
+    parser.halconfigPath = file.absolutePath
+
+    when:
+    Halconfig first = parser.getHalconfig(true)
+    Halconfig second = parser.getHalconfig(true)
+
+    then:
+    first.is(second)
+    parser.parseCacheMisses.get() == 1
+    parser.parseCacheHits.get() == 1
+  }
+
+  void "Reparse the halconfig once the file changes"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT
+"""
+    parser.halconfigPath = file.absolutePath
+
+    when:
+    Halconfig first = parser.getHalconfig(true)
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT-changed
+"""
+    Halconfig second = parser.getHalconfig(true)
+
+    then:
+    first.currentDeployment == CURRENT_DEPLOYMENT
+    second.currentDeployment == "$CURRENT_DEPLOYMENT-changed"
+    parser.parseCacheMisses.get() == 2
+    parser.parseCacheHits.get() == 0
+  }
+
+  void "Staged changes are only published once saved"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT
+"""
+    parser.halconfigPath = file.absolutePath
+    HalconfigSnapshot before = parser.getSnapshot()
+
+    when:
+    parser.beginChanges()
+    parser.getHalconfig(true).currentDeployment = "$CURRENT_DEPLOYMENT-changed"
+
+    then:
+    parser.getSnapshot().is(before)
+    before.halconfig.currentDeployment == CURRENT_DEPLOYMENT
+
+    when:
+    parser.saveConfig()
+    HalconfigSnapshot after = parser.getSnapshot()
+
+    then:
+    after.generation > before.generation
+    after.halconfig.currentDeployment == "$CURRENT_DEPLOYMENT-changed"
+    before.halconfig.currentDeployment == CURRENT_DEPLOYMENT
+  }
+
+  void "Reject changes staged against a stale snapshot"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT
+"""
+    parser.halconfigPath = file.absolutePath
+
+    when:
+    parser.beginChanges()
+    parser.getHalconfig(true).currentDeployment = "$CURRENT_DEPLOYMENT-changed"
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT-elsewhere
+"""
+    parser.saveConfig()
+
+    then:
+    thrown(HalconfigException)
+    parser.getHalconfig(true).currentDeployment == "$CURRENT_DEPLOYMENT-elsewhere"
+  }
+
+  void "Only apply changes to the generation the client expects"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT
+"""
+    parser.halconfigPath = file.absolutePath
+    long read = parser.getSnapshot().generation
+
+    when:
+    parser.beginChanges(read)
+    parser.getHalconfig(true).currentDeployment = "$CURRENT_DEPLOYMENT-changed"
+    long saved = parser.saveConfig().generation
+
+    then:
+    saved > read
+    parser.getHalconfig(true).currentDeployment == "$CURRENT_DEPLOYMENT-changed"
+
+    when:
+    parser.beginChanges(read)
+
+    then:
+    StaleConfigException e = thrown()
+    e.responseCode == 412
+    parser.getHalconfig(true).currentDeployment == "$CURRENT_DEPLOYMENT-changed"
+  }
+
+  void "Journal changes without rewriting the halconfig"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    new File(file.absolutePath + ".journal").deleteOnExit()
+    String original = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT
+"""
+    file.text = original
+    parser.halconfigPath = file.absolutePath
+    parser.halconfigJournal = journal(file)
+
+    when:
+    parser.beginChanges()
+    parser.getHalconfig(true).currentDeployment = "$CURRENT_DEPLOYMENT-changed"
+    parser.saveConfig()
+
+    then:
+    file.text == original
+    parser.halconfigJournal.length() > 0
+
+    when:
+    HalconfigParser restarted = new HalconfigParser()
+    restarted.objectMapper = new ObjectMapper()
+    restarted.halconfigPath = file.absolutePath
+    restarted.halconfigJournal = journal(file)
+
+    then:
+    restarted.getHalconfig(true).currentDeployment == "$CURRENT_DEPLOYMENT-changed"
+
+    when:
+    parser.compactJournal()
+
+    then:
+    parser.halconfigJournal.length() == 0
+    file.text.contains("$CURRENT_DEPLOYMENT-changed")
+    parser.getHalconfig(true).currentDeployment == "$CURRENT_DEPLOYMENT-changed"
+  }
+
+  void "Recover from a record torn by a crash, whether the next thing done is a write or a read"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    File journalFile = new File(file.absolutePath + ".journal")
+    journalFile.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT
+"""
+    parser.halconfigPath = file.absolutePath
+    parser.halconfigJournal = journal(file)
+    String torn = '{"changes":[{"op":"set","path":["currentDeploy'
+
+    when: "a write is torn, and the next write is appended"
+    parser.beginChanges()
+    parser.getHalconfig(true).currentDeployment = "$CURRENT_DEPLOYMENT-1"
+    parser.saveConfig()
+    journalFile.append(torn)
+    parser.beginChanges()
+    parser.getHalconfig(true).currentDeployment = "$CURRENT_DEPLOYMENT-2"
+    parser.saveConfig()
+
+    then:
+    journalFile.readLines().size() == 2
+    !journalFile.text.contains(torn)
+    restartWithJournal(file).getHalconfig(true).currentDeployment == "$CURRENT_DEPLOYMENT-2"
+
+    when: "a write is torn, and the journal is replayed before the next write"
+    journalFile.append(torn)
+    HalconfigParser restarted = restartWithJournal(file)
+    String replayed = restarted.getHalconfig(true).currentDeployment
+    restarted.beginChanges()
+    restarted.getHalconfig(true).currentDeployment = "$CURRENT_DEPLOYMENT-3"
+    restarted.saveConfig()
+
+    then:
+    replayed == "$CURRENT_DEPLOYMENT-2"
+    journalFile.readLines().size() == 3
+    !journalFile.text.contains(torn)
+    restartWithJournal(file).getHalconfig(true).currentDeployment == "$CURRENT_DEPLOYMENT-3"
+  }
+
+  void "Only journal the deployments that changed"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    File journalFile = new File(file.absolutePath + ".journal")
+    journalFile.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: a
+deploymentConfigurations:
+- name: a
+  version: 1.0.0
+- name: b
+  version: 1.0.0
+"""
+    parser.halconfigPath = file.absolutePath
+    parser.halconfigJournal = journal(file)
+
+    when:
+    parser.beginChanges()
+    parser.getHalconfig(true).deploymentConfigurations[1].version = "1.1.0"
+    parser.saveConfig()
+
+    then:
+    List<String> records = journalFile.readLines()
+    records.size() == 1
+    records[0].contains('["deploymentConfigurations","1","version"]')
+    !records[0].contains('"0"')
+
+    when:
+    HalconfigParser restarted = new HalconfigParser()
+    restarted.objectMapper = new ObjectMapper()
+    restarted.halconfigPath = file.absolutePath
+    restarted.halconfigJournal = journal(file)
+
+    then:
+    restarted.getHalconfig(true).deploymentConfigurations*.version == ["1.0.0", "1.1.0"]
+  }
+
+  void "Read the halconfig from the cache while the YAML is unchanged"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    File cacheFile = new File(file.parentFile, ".config.cache")
+    cacheFile.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT
+"""
+    parser.halconfigPath = file.absolutePath
+    parser.halconfigCache = cache(file)
+
+    when:
+    parser.getHalconfig(true)
+    // Only a parser reading from the cache could see this value.
+    cacheFile.text = cacheFile.text.replace("\"$CURRENT_DEPLOYMENT\"", "\"$CURRENT_DEPLOYMENT-cached\"")
+
+    then:
+    restart(file).getHalconfig(true).currentDeployment == "$CURRENT_DEPLOYMENT-cached"
+
+    when:
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT-edited
+"""
+
+    then:
+    restart(file).getHalconfig(true).currentDeployment == "$CURRENT_DEPLOYMENT-edited"
+  }
+
+  void "Pick up hand edits reported by the watcher"() {
+    setup:
+    File directory = File.createTempDir()
+    directory.deleteOnExit()
+    File file = new File(directory, "config")
+    file.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT
+"""
+    parser.halconfigPath = file.absolutePath
+    HalconfigWatcher watcher = new HalconfigWatcher()
+    watcher.enabled = true
+    watcher.halconfigPath = file.absolutePath
+    watcher.start()
+    parser.halconfigWatcher = watcher
+
+    when:
+    parser.getHalconfig(true)
+    Halconfig unchanged = parser.getHalconfig(true)
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: $CURRENT_DEPLOYMENT-edited
+"""
+
+    then:
+    unchanged.currentDeployment == CURRENT_DEPLOYMENT
+    new PollingConditions(timeout: 10).eventually {
+      assert parser.getHalconfig(true).currentDeployment == "$CURRENT_DEPLOYMENT-edited"
+    }
+
+    cleanup:
+    watcher.stop()
+  }
+
+  void "Migrate to and from one file per deployment"() {
+    setup:
+    File directory = File.createTempDir()
+    directory.deleteOnExit()
+    File file = new File(directory, "config")
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: a
+deploymentConfigurations:
+- name: a
+  version: 1.0.0
+- name: b
+  version: 1.0.0
+"""
+    parser.halconfigPath = file.absolutePath
+    parser.halconfigShards = shards(file)
+
+    when:
+    parser.setLayout(HalconfigLayout.SHARDED)
+
+    then:
+    parser.layout == HalconfigLayout.SHARDED
+    !file.text.contains("version: 1.0.0")
+    new File(directory, "config.d/a.yml").text.contains("version: 1.0.0")
+
+    when:
+    long untouched = new File(directory, "config.d/b.yml").lastModified()
+    String index = file.text
+    parser.beginChanges()
+    parser.getHalconfig(true).deploymentConfigurations[0].version = "1.1.0"
+    parser.saveConfig()
+
+    then: "the unchanged deployment is neither rewritten nor bound"
+    new File(directory, "config.d/a.yml").text.contains("version: 1.1.0")
+    new File(directory, "config.d/b.yml").lastModified() == untouched
+    file.text == index
+    parser.getHalconfig(true).deploymentConfigurations.getSource(1) != null
+
+    when:
+    HalconfigParser restarted = new HalconfigParser()
+    restarted.objectMapper = new ObjectMapper()
+    restarted.halconfigPath = file.absolutePath
+    restarted.halconfigShards = shards(file)
+
+    then:
+    restarted.layout == HalconfigLayout.SHARDED
+    restarted.getHalconfig(true).deploymentConfigurations*.version == ["1.1.0", "1.0.0"]
+
+    when:
+    parser.setLayout(HalconfigLayout.SINGLE_FILE)
+
+    then:
+    parser.layout == HalconfigLayout.SINGLE_FILE
+    !new File(directory, "config.d").exists()
+    file.text.contains("version: 1.1.0")
+    restarted.getHalconfig(true).deploymentConfigurations*.version == ["1.1.0", "1.0.0"]
+  }
+
+  void "Only change the layout of the generation the client expects"() {
+    setup:
+    File directory = File.createTempDir()
+    directory.deleteOnExit()
+    File file = new File(directory, "config")
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: a
+deploymentConfigurations:
+- name: a
+  version: 1.0.0
+"""
+    parser.halconfigPath = file.absolutePath
+    parser.halconfigShards = shards(file)
+    long generation = parser.getSnapshot().generation
+
+    when:
+    parser.beginChanges()
+    parser.getHalconfig(true).currentDeployment = "b"
+    parser.saveConfig()
+    parser.setLayout(HalconfigLayout.SHARDED, generation)
+
+    then:
+    thrown(StaleConfigException)
+    parser.layout == HalconfigLayout.SINGLE_FILE
+
+    when:
+    long saved = parser.getSnapshot().generation
+    HalconfigSnapshot migrated = parser.setLayout(HalconfigLayout.SHARDED, saved)
+
+    then: "the contents, and so the generation, are unchanged"
+    migrated.layout == HalconfigLayout.SHARDED
+    migrated.generation == saved
+    parser.layout == HalconfigLayout.SHARDED
+  }
+
+  void "Rebase concurrent changes to different deployments"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: a
+deploymentConfigurations:
+- name: a
+  version: 1.0.0
+- name: b
+  version: 1.0.0
+"""
+    parser.halconfigPath = file.absolutePath
+
+    when:
+    parser.beginChanges()
+    parser.getHalconfig(true).deploymentConfigurations.find { it.name == "a" }.version = "1.1.0"
+    Thread concurrent = Thread.start {
+      parser.beginChanges()
+      parser.getHalconfig(true).deploymentConfigurations.find { it.name == "b" }.version = "1.2.0"
+      parser.saveConfig()
+    }
+    concurrent.join()
+    parser.saveConfig()
+
+    then:
+    parser.getHalconfig(true).deploymentConfigurations*.version == ["1.1.0", "1.2.0"]
+  }
+
+  void "Binding a deployment doesn't count as changing it"() {
+    setup:
+    HalconfigCodec codec = new HalconfigCodec()
+    String config = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: a
+deploymentConfigurations:
+- name: a
+  version: 1.0.0
+"""
+    Halconfig unbound = codec.read(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)), Halconfig.class)
+    Halconfig bound = codec.read(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)), Halconfig.class)
+    bound.deploymentConfigurations[0]
+
+    expect:
+    !NodeDiff.deploymentDiffers(unbound, new NodeHashes(), 0, bound, new NodeHashes(), 0)
+  }
+
+  void "Reject concurrent changes to the same deployment"() {
+    setup:
+    File file = File.createTempFile("halconfig", null)
+    file.deleteOnExit()
+    file.text = """
+halyardVersion: $HALYARD_VERSION
+currentDeployment: a
+deploymentConfigurations:
+- name: a
+  version: 1.0.0
+"""
+    parser.halconfigPath = file.absolutePath
+
+    when:
+    parser.beginChanges()
+    parser.getHalconfig(true).deploymentConfigurations[0].version = "1.1.0"
+    Thread concurrent = Thread.start {
+      parser.beginChanges()
+      parser.getHalconfig(true).deploymentConfigurations[0].version = "1.2.0"
+      parser.saveConfig()
+    }
+    concurrent.join()
+    parser.saveConfig()
+
+    then:
+    thrown(HalconfigException)
+    parser.getHalconfig(true).deploymentConfigurations[0].version == "1.2.0"
+  }
+
+  private HalconfigShards shards(File file) {
+    HalconfigShards shards = new HalconfigShards()
+    shards.halconfigPath = file.absolutePath
+    return shards
+  }
+
+  private HalconfigParser restart(File file) {
+    HalconfigParser restarted = new HalconfigParser()
+    restarted.objectMapper = new ObjectMapper()
+    restarted.halconfigPath = file.absolutePath
+    restarted.halconfigCache = cache(file)
+    return restarted
+  }
+
+  private HalconfigCache cache(File file) {
+    HalconfigCache cache = new HalconfigCache()
+    cache.@enabled = true
+    cache.halconfigPath = file.absolutePath
+    cache.halyardVersion = HALYARD_VERSION
+    return cache
+  }
+
+  private HalconfigParser restartWithJournal(File file) {
+    HalconfigParser restarted = new HalconfigParser()
+    restarted.objectMapper = new ObjectMapper()
+    restarted.halconfigPath = file.absolutePath
+    restarted.halconfigJournal = journal(file)
+    return restarted
+  }
+
+  private HalconfigJournal journal(File file) {
+    HalconfigJournal journal = new HalconfigJournal()
+    journal.@enabled = true
+    journal.halconfigPath = file.absolutePath
+    return journal
+  }
 }
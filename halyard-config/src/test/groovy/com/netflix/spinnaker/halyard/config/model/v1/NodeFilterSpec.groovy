@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.model.v1
+
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class NodeFilterSpec extends Specification {
+  @Unroll
+  void "compiled filter matches #name against #value like the filter does"() {
+    setup:
+    def compiled = new NodeFilter().setAccount(value).compile()
+
+    expect:
+    compiled.matchesAccount(name) == NodeFilter.matches(value, name)
+
+    where:
+    [value, name] << [["", "*", "account", "other"], ["", "*", "account"]].combinations()
+  }
+
+  void "compiled filters are shared, and don't change with the filter they were compiled from"() {
+    setup:
+    def filter = new NodeFilter().withAnyHalconfigFile().setDeployment("default")
+
+    when:
+    def compiled = filter.compile()
+    filter.withAnyDeployment()
+
+    then:
+    compiled.is(new NodeFilter().withAnyHalconfigFile().setDeployment("default").compile())
+    compiled.matchesDeployment("default")
+    !compiled.matchesDeployment("other")
+    filter.compile().matchesDeployment("other")
+  }
+}
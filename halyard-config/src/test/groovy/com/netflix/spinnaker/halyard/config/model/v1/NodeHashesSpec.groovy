@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.model.v1
+
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigCodec
+import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeHashes
+import com.netflix.spinnaker.halyard.config.services.v1.HalconfigParserMocker
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class NodeHashesSpec extends Specification {
+  final HalconfigParserMocker mocker = new HalconfigParserMocker()
+
+  Halconfig halconfig(String kubernetesAccount) {
+    String config = """
+halyardVersion: 1
+currentDeployment: default
+deploymentConfigurations:
+- name: default
+  version: 1
+  providers:
+    kubernetes:
+      enabled: true
+      accounts:
+        - name: $kubernetesAccount
+    dockerRegistry:
+      enabled: true
+      accounts:
+        - name: my-docker-account
+"""
+    return mocker.mockHalconfigParser(config).getHalconfig(true)
+  }
+
+  void "Identical halconfigs have identical hashes"() {
+    when:
+    def first = new NodeHashes().getHashes(halconfig("my-k8s-account"))
+    def second = new NodeHashes().getHashes(halconfig("my-k8s-account"))
+
+    then:
+    first == second
+    first.keySet().contains("halconfig.default.provider.kubernetes.my-k8s-account")
+  }
+
+  void "Only the changed node and its ancestors change their hashes"() {
+    when:
+    def before = new NodeHashes().getHashes(halconfig("my-k8s-account").deploymentConfigurations[0])
+    def after = new NodeHashes().getHashes(halconfig("my-other-k8s-account").deploymentConfigurations[0])
+
+    then:
+    before["default"] != after["default"]
+    before["default.provider"] != after["default.provider"]
+    before["default.provider.kubernetes"] != after["default.provider.kubernetes"]
+    before["default.provider.dockerRegistry"] == after["default.provider.dockerRegistry"]
+    before["default.provider.dockerRegistry.my-docker-account"] == after["default.provider.dockerRegistry.my-docker-account"]
+    before["default.features"] == after["default.features"]
+  }
+
+  void "Deployments hash the same whether or not they're bound"() {
+    setup:
+    HalconfigCodec codec = new HalconfigCodec()
+    String config = """
+halyardVersion: 1
+currentDeployment: default
+deploymentConfigurations:
+- name: default
+  version: 1
+"""
+    Halconfig unbound = codec.read(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)), Halconfig.class)
+
+    when: "the bound deployment fills in the defaults the unbound one was read without"
+    Halconfig bound = codec.read(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)), Halconfig.class)
+    bound.bindDeployments()
+
+    then:
+    new NodeHashes().getHash(unbound) == new NodeHashes().getHash(bound)
+  }
+
+  void "Hash a halconfig without binding its deployments"() {
+    setup:
+    String config = """
+halyardVersion: 1
+currentDeployment: default
+deploymentConfigurations:
+- name: default
+  acounts: []
+"""
+    Halconfig halconfig = new HalconfigCodec().read(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)), Halconfig.class)
+
+    when:
+    new NodeHashes().getHash(halconfig)
+
+    then:
+    // Binding the deployment would have rejected its unrecognized property.
+    noExceptionThrown()
+  }
+}
@@ -17,6 +17,7 @@
 package com.netflix.spinnaker.halyard.config.model.v1
 
 import com.netflix.spinnaker.halyard.config.model.v1.node.*
+import com.netflix.spinnaker.halyard.config.model.v1.problem.Problem
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder
 import spock.lang.Specification
 
@@ -24,7 +25,10 @@ class NodeSpec extends Specification {
   static final List<String> field1Options = ["a", "b", "c"]
 
   class TestNode extends Node {
+    int optionsLookups = 0
+
     List<String> field1Options(ProblemSetBuilder p) {
+      optionsLookups++
       return field1Options
     }
 
@@ -51,7 +55,7 @@ class NodeSpec extends Specification {
     }
 
     @Override
-    protected boolean matchesLocally(NodeFilter filter) {
+    protected boolean matchesLocally(CompiledNodeFilter filter) {
       return false
     }
 
@@ -80,7 +84,7 @@ class NodeSpec extends Specification {
     }
 
     @Override
-    protected boolean matchesLocally(NodeFilter filter) {
+    protected boolean matchesLocally(CompiledNodeFilter filter) {
       return true
     }
 
@@ -112,6 +116,26 @@ class NodeSpec extends Specification {
     options == []
   }
 
+  void "problem options are only looked up once they're read"() {
+    setup:
+    def node = new TestNode()
+    def psBuilder = new ProblemSetBuilder().setNode(node)
+
+    when:
+    def problem = psBuilder.addProblem(Problem.Severity.WARNING, "problem", "field1").build()
+
+    then:
+    node.optionsLookups == 0
+
+    when:
+    def options = problem.options
+    problem.options
+
+    then:
+    options == field1Options
+    node.optionsLookups == 1
+  }
+
   void "node correctly provides reflective iterator"() {
     setup:
     def node = new TestNode()
@@ -128,6 +152,28 @@ class NodeSpec extends Specification {
     }
   }
 
+  void "reflective iterator returns the current child of each field in declaration order"() {
+    setup:
+    def node = new TestNode()
+    node.getChildren()
+    node.node2 = new ChildTestNode()
+    node.node3 = null
+
+    when:
+    def iterator = node.getChildren()
+    def children = []
+    def child = iterator.getNext()
+    while (child != null) {
+      children << child
+      child = iterator.getNext()
+    }
+
+    then:
+    children.size() == 2
+    children[0].is(node.node1)
+    children[1].is(node.node2)
+  }
+
   void "node correctly provides list iterator"() {
     setup:
     def node = new ChildTestNode()
@@ -159,6 +205,18 @@ class NodeSpec extends Specification {
     files.size() == 2
   }
 
+  void "node reports the paths in its localfiles that are set"() {
+    setup:
+    def node = new TestNode()
+    node.file2 = null
+
+    when:
+    def paths = node.localFilePaths()
+
+    then:
+    paths == ["/a/b/c/"]
+  }
+
   void "node correctly reports no localfiles"() {
     setup:
     def node = new ChildTestNode()
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.model.v1.providers.kubernetes
+
+import spock.lang.Specification
+
+class KubeconfigCacheSpec extends Specification {
+  static String kubeconfig(String context) {
+    return """
+apiVersion: v1
+kind: Config
+current-context: $context
+contexts:
+- name: $context
+  context:
+    cluster: cluster
+    user: user
+"""
+  }
+
+  void "Only parse a kubeconfig again once it changes"() {
+    setup:
+    File file = File.createTempFile("kubeconfig", null)
+    file.deleteOnExit()
+    file.text = kubeconfig("first")
+
+    when:
+    def first = KubeconfigCache.parseConfig(file.absolutePath)
+    def again = KubeconfigCache.parseConfig(file.absolutePath)
+
+    then:
+    first.is(again)
+    first.currentContext == "first"
+
+    when:
+    file.text = kubeconfig("second-context")
+    def second = KubeconfigCache.parseConfig(file.absolutePath)
+
+    then:
+    !second.is(first)
+    second.currentContext == "second-context"
+  }
+}
@@ -19,16 +19,23 @@ package com.netflix.spinnaker.halyard.config.services.v1
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.netflix.spinnaker.halyard.config.config.v1.HalconfigParser
 import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig
-import org.yaml.snakeyaml.Yaml
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeHashes
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeIndex
 import spock.lang.Specification
 
 import java.nio.charset.StandardCharsets
 
 class HalconfigParserMocker extends Specification {
   HalconfigParser mockHalconfigParser(String config) {
+    return mockHalconfigParser(config, true)
+  }
+
+  /**
+   * @param indexed is false to mock a parser that is staging changes, which are looked up without a node index.
+   */
+  HalconfigParser mockHalconfigParser(String config, boolean indexed) {
     def parserStub = new HalconfigParser()
     parserStub.objectMapper = new ObjectMapper()
-    parserStub.yamlParser = new Yaml()
     parserStub.halconfigPath = "/some/nonsense/file"
 
     def stream = new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8))
@@ -36,6 +43,8 @@ class HalconfigParserMocker extends Specification {
     halconfig = parserStub.transformHalconfig(halconfig)
     HalconfigParser parser = Mock(HalconfigParser)
     parser.getHalconfig(_) >> halconfig
+    parser.getNodeIndex() >> (indexed ? new NodeIndex(halconfig) : null)
+    parser.getNodeHashes() >> new NodeHashes()
     return parser
   }
 }
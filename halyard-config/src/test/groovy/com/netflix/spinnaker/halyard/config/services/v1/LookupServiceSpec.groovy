@@ -17,9 +17,12 @@
 package com.netflix.spinnaker.halyard.config.services.v1
 
 import com.netflix.spinnaker.halyard.config.model.v1.node.Account
+import com.netflix.spinnaker.halyard.config.model.v1.node.DeploymentConfiguration
+import com.netflix.spinnaker.halyard.config.model.v1.node.Node
 import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter
 import com.netflix.spinnaker.halyard.config.model.v1.node.Provider
 import spock.lang.Specification
+import spock.lang.Unroll
 
 class LookupServiceSpec extends Specification {
   final static String DEPLOYMENT_NAME = "default"
@@ -369,4 +372,163 @@ deploymentConfigurations:
     result[0].getNodeName() == KUBERNETES_PROVIDER
     result.size() == 1
   }
+
+  @Unroll
+  def "the node index finds the same nodes as walking the halconfig for #type.simpleName"() {
+    setup:
+    String config = """
+halyardVersion: 1
+currentDeployment: $DEPLOYMENT_NAME
+deploymentConfigurations:
+- name: $DEPLOYMENT_NAME
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $KUBERNETES_ACCOUNT_NAME
+        - name: $KUBERNETES_ACCOUNT_NAME-1
+    $DOCKER_REGISTRY_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $DOCKER_REGISTRY_ACCOUNT_NAME
+    $GOOGLE_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $GOOGLE_ACCOUNT_NAME
+- name: $DEPLOYMENT_NAME-1
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $KUBERNETES_ACCOUNT_NAME
+"""
+    def indexed = new LookupService()
+    indexed.parser = mocker.mockHalconfigParser(config, true)
+    def walked = new LookupService()
+    walked.parser = mocker.mockHalconfigParser(config, false)
+
+    when:
+    def expected = walked.getMatchingNodesOfType(filter, type).collect { it.class.simpleName + ":" + it.nodeName }
+    def result = indexed.getMatchingNodesOfType(filter, type).collect { it.class.simpleName + ":" + it.nodeName }
+
+    then:
+    result == expected
+    result.size() == count
+
+    where:
+    filter                                                                                                                            | type                          || count
+    new NodeFilter().withAnyHalconfigFile().withAnyDeployment().withAnyProvider().withAnyAccount()                                   | Account.class                 || 5
+    new NodeFilter().withAnyHalconfigFile().withAnyDeployment().withAnyProvider().withAnyAccount()                                   | Node.class                    || 16
+    new NodeFilter().withAnyHalconfigFile().setDeployment(DEPLOYMENT_NAME).withAnyProvider()                                         | Provider.class                || 3
+    new NodeFilter().withAnyHalconfigFile().withAnyDeployment().setProvider(KUBERNETES_PROVIDER).setAccount(KUBERNETES_ACCOUNT_NAME) | Account.class                 || 2
+    new NodeFilter().withAnyHalconfigFile().setDeployment(DEPLOYMENT_NAME)                                                           | DeploymentConfiguration.class || 1
+    new NodeFilter().setDeployment(DEPLOYMENT_NAME).withAnyProvider().withAnyAccount()                                               | Account.class                 || 0
+  }
+
+  @Unroll
+  def "matching children locally finds the same nodes as matching them to the root for #filter"() {
+    setup:
+    String config = """
+halyardVersion: 1
+currentDeployment: $DEPLOYMENT_NAME
+deploymentConfigurations:
+- name: $DEPLOYMENT_NAME
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $KUBERNETES_ACCOUNT_NAME
+    $GOOGLE_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $GOOGLE_ACCOUNT_NAME
+- name: $DEPLOYMENT_NAME-1
+  version: 1
+"""
+    def parser = mocker.mockHalconfigParser(config, false)
+    def lookupService = new LookupService()
+    lookupService.parser = parser
+
+    when:
+    def expected = matchingToRoot(parser.getHalconfig(true), filter)
+    def result = lookupService.getMatchingNodesOfType(filter, Node.class)
+
+    then:
+    result.size() == expected.size()
+    [result, expected].transpose().every { it[0].is(it[1]) }
+
+    where:
+    filter << [
+        new NodeFilter().withAnyHalconfigFile().withAnyDeployment().withAnyProvider().withAnyAccount(),
+        new NodeFilter().withAnyHalconfigFile().setDeployment(DEPLOYMENT_NAME).setProvider(GOOGLE_PROVIDER).withAnyAccount(),
+        new NodeFilter().withAnyHalconfigFile().withAnyDeployment().setConfigNode("features"),
+        new NodeFilter().withAnyHalconfigFile().setDeployment("$DEPLOYMENT_NAME-2").withAnyProvider(),
+        new NodeFilter().withAnyDeployment().withAnyProvider().withAnyAccount()
+    ]
+  }
+
+  @Unroll
+  def "looking up several filters at once finds the same nodes as looking each up alone when indexed is #indexed"() {
+    setup:
+    String config = """
+halyardVersion: 1
+currentDeployment: $DEPLOYMENT_NAME
+deploymentConfigurations:
+- name: $DEPLOYMENT_NAME
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $KUBERNETES_ACCOUNT_NAME
+    $GOOGLE_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $GOOGLE_ACCOUNT_NAME
+- name: $DEPLOYMENT_NAME-1
+  version: 1
+"""
+    def lookupService = new LookupService()
+    lookupService.parser = mocker.mockHalconfigParser(config, indexed)
+    def filters = [
+        new NodeFilter().withAnyHalconfigFile().withAnyDeployment().withAnyProvider().withAnyAccount(),
+        new NodeFilter().withAnyHalconfigFile().setDeployment(DEPLOYMENT_NAME).setProvider(GOOGLE_PROVIDER).withAnyAccount(),
+        new NodeFilter().withAnyHalconfigFile().withAnyDeployment().setConfigNode("features"),
+        new NodeFilter().withAnyHalconfigFile().setDeployment("$DEPLOYMENT_NAME-2").withAnyProvider(),
+        new NodeFilter().withAnyHalconfigFile().setDeployment(DEPLOYMENT_NAME).withAnyProvider()
+    ]
+    def classes = [Account.class, Account.class, Node.class, Provider.class, Provider.class]
+
+    when:
+    def results = lookupService.getMatchingNodesOfTypes(filters, classes)
+
+    then:
+    results.size() == filters.size()
+    [filters, classes, results].transpose().every { filter, clazz, result ->
+      def expected = lookupService.getMatchingNodesOfType(filter, clazz)
+      result.size() == expected.size() && [result, expected].transpose().every { it[0].is(it[1]) }
+    }
+
+    where:
+    indexed << [true, false]
+  }
+
+  /**
+   * Walks the halconfig checking every child against the filter all the way to the root.
+   */
+  static List<Node> matchingToRoot(Node node, NodeFilter filter) {
+    List<Node> result = []
+    def children = node.children
+    def child = children.getNext(filter)
+    while (child != null) {
+      result.addAll(matchingToRoot(child, filter))
+      child = children.getNext(filter)
+    }
+
+    result << node
+    return result
+  }
 }
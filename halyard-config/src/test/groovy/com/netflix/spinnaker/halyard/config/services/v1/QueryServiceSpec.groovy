@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.services.v1
+
+import com.netflix.spinnaker.halyard.config.model.v1.node.Account
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeQuery
+import com.netflix.spinnaker.halyard.config.model.v1.node.Validator
+import com.netflix.spinnaker.halyard.config.model.v1.problem.Problem
+import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder
+import com.netflix.spinnaker.halyard.config.validate.v1.ValidatorCollection
+import spock.lang.Specification
+
+class QueryServiceSpec extends Specification {
+  final static String DEPLOYMENT_NAME = "default"
+  final static String KUBERNETES_ACCOUNT_NAME = "my-k8s-account"
+  final static String BROKEN_ACCOUNT_NAME = "my-broken-k8s-account"
+  final static String KUBERNETES_PROVIDER = "kubernetes"
+  final HalconfigParserMocker mocker = new HalconfigParserMocker()
+
+  def "a query whose nodes have problems doesn't fail the others"() {
+    setup:
+    String config = """
+halyardVersion: 1
+currentDeployment: $DEPLOYMENT_NAME
+deploymentConfigurations:
+- name: $DEPLOYMENT_NAME
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $KUBERNETES_ACCOUNT_NAME
+        - name: $BROKEN_ACCOUNT_NAME
+"""
+    def parser = mocker.mockHalconfigParser(config)
+    def validator = new BrokenAccountValidator()
+
+    def queryService = new QueryService()
+    queryService.lookupService = new LookupService()
+    queryService.lookupService.parser = parser
+    queryService.validateService = new ValidateService()
+    queryService.validateService.parser = parser
+    queryService.validateService.validatorCollection = new ValidatorCollection()
+    queryService.validateService.validatorCollection.validators = [validator]
+
+    def query = { String account ->
+      new NodeQuery()
+          .setFilter(new NodeFilter().setDeployment(DEPLOYMENT_NAME).setProvider(KUBERNETES_PROVIDER).setAccount(account))
+          .setType(NodeQuery.Type.ACCOUNT)
+          .setValidate(true)
+    }
+
+    when:
+    def result = queryService.query([
+        broken: query(BROKEN_ACCOUNT_NAME),
+        clean: query(KUBERNETES_ACCOUNT_NAME),
+        all: query("*")
+    ])
+
+    then:
+    result.broken.failed
+    result.broken.problemSet.problems*.message == ["$BROKEN_ACCOUNT_NAME is broken".toString()]
+    !result.clean.failed
+    result.clean.nodes*.nodeName == [KUBERNETES_ACCOUNT_NAME]
+    result.clean.problemSet.problems.isEmpty()
+    result.all.failed
+    result.all.problemSet.problems.size() == 1
+
+    // Every account is validated once, no matter how many queries matched it.
+    validator.validatedAccounts.sort() == [BROKEN_ACCOUNT_NAME, KUBERNETES_ACCOUNT_NAME].sort()
+  }
+
+  class BrokenAccountValidator extends Validator<Account> {
+    List<String> validatedAccounts = []
+
+    @Override
+    void validate(ProblemSetBuilder p, Account n) {
+      validatedAccounts.add(n.getName())
+      if (n.getName() == BROKEN_ACCOUNT_NAME) {
+        p.addProblem(Problem.Severity.ERROR, "${n.getName()} is broken".toString())
+      }
+    }
+  }
+}
@@ -16,13 +16,24 @@
 
 package com.netflix.spinnaker.halyard.config.services.v1
 
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigLayout
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigParser
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigSnapshot
 import com.netflix.spinnaker.halyard.config.model.v1.node.Account
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeHashes
 import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter
 import com.netflix.spinnaker.halyard.config.model.v1.node.Validator
 import com.netflix.spinnaker.halyard.config.model.v1.problem.Problem
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder
+import com.netflix.spinnaker.halyard.config.validate.v1.ValidationCache
 import com.netflix.spinnaker.halyard.config.validate.v1.ValidatorCollection
+import org.springframework.core.env.StandardEnvironment
 import spock.lang.Specification
+import spock.lang.Timeout
+import spock.lang.Unroll
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
 
 class ValidateServiceSpec extends Specification {
   final static String DEPLOYMENT_NAME = "default"
@@ -76,6 +87,422 @@ deploymentConfigurations:
     validator.validatedAccounts.contains(GOOGLE_ACCOUNT_NAME)
   }
 
+  def "validating in parallel reports problems in the same order as validating serially"() {
+    setup:
+    String config = """
+halyardVersion: 1
+currentDeployment: $DEPLOYMENT_NAME
+deploymentConfigurations:
+- name: $DEPLOYMENT_NAME
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $KUBERNETES_ACCOUNT_NAME
+        - name: $KUBERNETES_ACCOUNT_NAME-1
+        - name: $KUBERNETES_ACCOUNT_NAME-2
+    $DOCKER_REGISTRY_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $DOCKER_REGISTRY_ACCOUNT_NAME
+    $GOOGLE_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $GOOGLE_ACCOUNT_NAME
+"""
+    def filter = new NodeFilter().withAnyHalconfigFile()
+        .setDeployment(DEPLOYMENT_NAME)
+        .withAnyProvider()
+        .withAnyAccount()
+
+    def serial = new ValidateService()
+    serial.parser = mocker.mockHalconfigParser(config)
+    serial.validatorCollection = new ValidatorCollection()
+    serial.validatorCollection.validators = [new SlowAccountValidator()]
+
+    def executor = Executors.newFixedThreadPool(4)
+    def parallel = new ValidateService()
+    parallel.parser = mocker.mockHalconfigParser(config)
+    parallel.validatorCollection = serial.validatorCollection
+    parallel.validateExecutor = executor
+    parallel.parallelism = 4
+
+    when:
+    def expected = serial.validateMatchingFilter(filter, Problem.Severity.FATAL).problems*.message
+    def result = parallel.validateMatchingFilter(filter, Problem.Severity.FATAL).problems*.message
+
+    then:
+    expected.size() == 5
+    result == expected
+
+    cleanup:
+    executor.shutdown()
+  }
+
+  @Timeout(10)
+  def "validating doesn't wait on helpers the busy shared executor never starts"() {
+    setup:
+    String config = """
+halyardVersion: 1
+currentDeployment: $DEPLOYMENT_NAME
+deploymentConfigurations:
+- name: $DEPLOYMENT_NAME
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $KUBERNETES_ACCOUNT_NAME
+    $DOCKER_REGISTRY_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $DOCKER_REGISTRY_ACCOUNT_NAME
+"""
+    def filter = new NodeFilter().withAnyHalconfigFile()
+        .setDeployment(DEPLOYMENT_NAME)
+        .withAnyProvider()
+        .withAnyAccount()
+    def validator = new TrackingAccountValidator()
+
+    def executor = Executors.newFixedThreadPool(1)
+    def busy = new CountDownLatch(1)
+    executor.submit({ busy.await() } as Runnable)
+
+    def validateService = new ValidateService()
+    validateService.parser = mocker.mockHalconfigParser(config)
+    validateService.validatorCollection = new ValidatorCollection()
+    validateService.validatorCollection.validators = [validator]
+    validateService.validateExecutor = executor
+    validateService.parallelism = 4
+
+    when:
+    validateService.validateMatchingFilter(filter, Problem.Severity.NONE)
+
+    then:
+    validator.validatedAccounts as Set == [KUBERNETES_ACCOUNT_NAME, DOCKER_REGISTRY_ACCOUNT_NAME] as Set
+
+    cleanup:
+    busy.countDown()
+    executor.shutdown()
+  }
+
+  def "cached validations are reused until the node changes, unless fresh ones are requested"() {
+    setup:
+    def config = { String kubernetesAccount -> """
+halyardVersion: 1
+currentDeployment: $DEPLOYMENT_NAME
+deploymentConfigurations:
+- name: $DEPLOYMENT_NAME
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $kubernetesAccount
+    $DOCKER_REGISTRY_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $DOCKER_REGISTRY_ACCOUNT_NAME
+"""
+    }
+    def filter = new NodeFilter().withAnyHalconfigFile()
+        .setDeployment(DEPLOYMENT_NAME)
+        .withAnyProvider()
+        .withAnyAccount()
+    def validator = new TrackingAccountValidator()
+
+    def validateService = new ValidateService()
+    validateService.parser = mocker.mockHalconfigParser(config(KUBERNETES_ACCOUNT_NAME))
+    validateService.validatorCollection = new ValidatorCollection()
+    validateService.validatorCollection.validators = [validator]
+    validateService.validationCache = new ValidationCache()
+    validateService.validationCache.enabled = true
+    validateService.validationCache.defaultTtlSeconds = 300
+    validateService.validationCache.environment = new StandardEnvironment()
+    validateService.validationCache.validatorCollection = validateService.validatorCollection
+
+    when:
+    validateService.validateMatchingFilter(filter, Problem.Severity.NONE)
+    validateService.validateMatchingFilter(filter, Problem.Severity.NONE)
+
+    then:
+    validator.validatedAccounts.size() == 2
+    validator.validatedAccounts as Set == [KUBERNETES_ACCOUNT_NAME, DOCKER_REGISTRY_ACCOUNT_NAME] as Set
+
+    when:
+    validateService.validationCache.setFresh(true)
+    validateService.validateMatchingFilter(filter, Problem.Severity.NONE)
+    validateService.validationCache.clearFresh()
+
+    then:
+    validator.validatedAccounts.size() == 4
+
+    when:
+    validateService.parser = mocker.mockHalconfigParser(config("$KUBERNETES_ACCOUNT_NAME-1"))
+    validateService.validateMatchingFilter(filter, Problem.Severity.NONE)
+
+    then:
+    validator.validatedAccounts.size() == 5
+    validator.validatedAccounts.last() == "$KUBERNETES_ACCOUNT_NAME-1"
+  }
+
+  def "cached validations of an account are dropped once an account it depends on changes"() {
+    setup:
+    def config = { String address -> """
+halyardVersion: 1
+currentDeployment: $DEPLOYMENT_NAME
+deploymentConfigurations:
+- name: $DEPLOYMENT_NAME
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $KUBERNETES_ACCOUNT_NAME
+          dockerRegistries:
+            - accountName: $DOCKER_REGISTRY_ACCOUNT_NAME
+    $DOCKER_REGISTRY_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $DOCKER_REGISTRY_ACCOUNT_NAME
+          address: $address
+"""
+    }
+    def filter = new NodeFilter().withAnyHalconfigFile()
+        .setDeployment(DEPLOYMENT_NAME)
+        .setProvider(KUBERNETES_PROVIDER)
+        .withAnyAccount()
+    def validator = new TrackingAccountValidator()
+
+    def validateService = new ValidateService()
+    validateService.parser = mocker.mockHalconfigParser(config("index.docker.io"))
+    validateService.validatorCollection = new ValidatorCollection()
+    validateService.validatorCollection.validators = [validator]
+    validateService.validationCache = new ValidationCache()
+    validateService.validationCache.enabled = true
+    validateService.validationCache.defaultTtlSeconds = 300
+    validateService.validationCache.environment = new StandardEnvironment()
+    validateService.validationCache.validatorCollection = validateService.validatorCollection
+
+    when:
+    validateService.validateMatchingFilter(filter, Problem.Severity.NONE)
+    validateService.validateMatchingFilter(filter, Problem.Severity.NONE)
+
+    then:
+    validator.validatedAccounts == [KUBERNETES_ACCOUNT_NAME]
+
+    when:
+    validateService.parser = mocker.mockHalconfigParser(config("changed.io"))
+    validateService.validateMatchingFilter(filter, Problem.Severity.NONE)
+
+    then:
+    validator.validatedAccounts == [KUBERNETES_ACCOUNT_NAME, KUBERNETES_ACCOUNT_NAME]
+  }
+
+  def "cached validations don't keep the nodes they were found on"() {
+    setup:
+    String config = """
+halyardVersion: 1
+currentDeployment: $DEPLOYMENT_NAME
+deploymentConfigurations:
+- name: $DEPLOYMENT_NAME
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $KUBERNETES_ACCOUNT_NAME
+"""
+    def filter = new NodeFilter().withAnyHalconfigFile()
+        .setDeployment(DEPLOYMENT_NAME)
+        .withAnyProvider()
+        .withAnyAccount()
+
+    def validateService = new ValidateService()
+    validateService.parser = mocker.mockHalconfigParser(config)
+    validateService.validatorCollection = new ValidatorCollection()
+    validateService.validatorCollection.validators = [new FieldAccountValidator()]
+    validateService.validationCache = new ValidationCache()
+    validateService.validationCache.enabled = true
+    validateService.validationCache.defaultTtlSeconds = 300
+    validateService.validationCache.environment = new StandardEnvironment()
+    validateService.validationCache.validatorCollection = validateService.validatorCollection
+
+    when:
+    def problems = validateService.validateMatchingFilter(filter, Problem.Severity.FATAL).problems
+    def cached = validateService.validationCache.entries.values()*.problems
+
+    then:
+    problems*.message == [KUBERNETES_ACCOUNT_NAME]
+    cached.size() == 1
+    cached[0].node == null
+    cached[0].builders*.optionsSupplier == [null]
+    cached[0].buildUnchecked().problems*.message == [KUBERNETES_ACCOUNT_NAME]
+  }
+
+  String stagedConfig(String changedAccount) {
+    return """
+halyardVersion: 1
+currentDeployment: $DEPLOYMENT_NAME
+deploymentConfigurations:
+- name: $DEPLOYMENT_NAME
+  version: 1
+  providers:
+    $KUBERNETES_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $KUBERNETES_ACCOUNT_NAME
+          dockerRegistries:
+            - accountName: $DOCKER_REGISTRY_ACCOUNT_NAME
+    $DOCKER_REGISTRY_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $DOCKER_REGISTRY_ACCOUNT_NAME
+          address: ${changedAccount == DOCKER_REGISTRY_ACCOUNT_NAME ? "changed.io" : "index.docker.io"}
+        - name: $DOCKER_REGISTRY_ACCOUNT_NAME-1
+          address: ${changedAccount == "$DOCKER_REGISTRY_ACCOUNT_NAME-1" ? "changed.io" : "index.docker.io"}
+    $GOOGLE_PROVIDER:
+      enabled: true
+      accounts:
+        - name: $GOOGLE_ACCOUNT_NAME
+"""
+  }
+
+  @Unroll
+  def "validating staged changes only runs validators on the accounts they affect when #account changes (cache enabled: #cacheEnabled)"() {
+    setup:
+    def base = mocker.mockHalconfigParser(stagedConfig(null)).getHalconfig(true)
+    def staged = mocker.mockHalconfigParser(stagedConfig(account)).getHalconfig(true)
+
+    def halconfig = base
+    def stagedChangesBase = null
+    def parser = Mock(HalconfigParser)
+    parser.getHalconfig(_) >> { halconfig }
+    parser.getNodeHashes() >> new NodeHashes()
+    parser.getStagedChangesBase() >> { stagedChangesBase }
+
+    def validator = new TrackingAccountValidator()
+    def validateService = new ValidateService()
+    validateService.parser = parser
+    validateService.validatorCollection = new ValidatorCollection()
+    validateService.validatorCollection.validators = [validator]
+    validateService.validationCache = new ValidationCache()
+    validateService.validationCache.enabled = cacheEnabled
+    validateService.validationCache.defaultTtlSeconds = 300
+    validateService.validationCache.environment = new StandardEnvironment()
+    validateService.validationCache.validatorCollection = validateService.validatorCollection
+    def filter = new NodeFilter().withAnyHalconfigFile()
+        .setDeployment(DEPLOYMENT_NAME)
+        .withAnyProvider()
+        .withAnyAccount()
+
+    validateService.validateMatchingFilter(filter, Problem.Severity.NONE)
+    validator.validatedAccounts.clear()
+
+    when:
+    halconfig = staged
+    stagedChangesBase = new HalconfigSnapshot(1, base, null, HalconfigLayout.SINGLE_FILE)
+    validateService.validateMatchingFilter(filter, Problem.Severity.NONE)
+
+    then:
+    validator.validatedAccounts.sort() == validated.collect { it.toString() }.sort()
+
+    where:
+    account                              | cacheEnabled || validated
+    DOCKER_REGISTRY_ACCOUNT_NAME         | true         || [DOCKER_REGISTRY_ACCOUNT_NAME, KUBERNETES_ACCOUNT_NAME]
+    "$DOCKER_REGISTRY_ACCOUNT_NAME-1"    | true         || ["$DOCKER_REGISTRY_ACCOUNT_NAME-1"]
+    null                                 | true         || []
+    DOCKER_REGISTRY_ACCOUNT_NAME         | false        || [DOCKER_REGISTRY_ACCOUNT_NAME, KUBERNETES_ACCOUNT_NAME]
+    "$DOCKER_REGISTRY_ACCOUNT_NAME-1"    | false        || ["$DOCKER_REGISTRY_ACCOUNT_NAME-1"]
+    null                                 | false        || []
+  }
+
+  def "validating staged changes reports the last problems found for the accounts they don't affect, however old"() {
+    setup:
+    def base = mocker.mockHalconfigParser(stagedConfig(null)).getHalconfig(true)
+    def staged = mocker.mockHalconfigParser(stagedConfig("$DOCKER_REGISTRY_ACCOUNT_NAME-1")).getHalconfig(true)
+
+    def halconfig = base
+    def stagedChangesBase = null
+    def parser = Mock(HalconfigParser)
+    parser.getHalconfig(_) >> { halconfig }
+    parser.getNodeHashes() >> new NodeHashes()
+    parser.getStagedChangesBase() >> { stagedChangesBase }
+
+    def validateService = new ValidateService()
+    validateService.parser = parser
+    validateService.validatorCollection = new ValidatorCollection()
+    def validator = new ReportingAccountValidator()
+    validateService.validatorCollection.validators = [validator]
+    validateService.validationCache = new ValidationCache()
+    validateService.validationCache.enabled = true
+    validateService.validationCache.defaultTtlSeconds = 0
+    validateService.validationCache.environment = new StandardEnvironment()
+    validateService.validationCache.validatorCollection = validateService.validatorCollection
+    def filter = new NodeFilter().withAnyHalconfigFile()
+        .setDeployment(DEPLOYMENT_NAME)
+        .withAnyProvider()
+        .withAnyAccount()
+
+    validateService.validateMatchingFilter(filter, Problem.Severity.FATAL)
+    validator.validatedAccounts.clear()
+
+    when: "nothing is cached, since every cached problem has expired"
+    halconfig = staged
+    stagedChangesBase = new HalconfigSnapshot(1, base, null, HalconfigLayout.SINGLE_FILE)
+    def problems = validateService.validateMatchingFilter(filter, Problem.Severity.FATAL)
+
+    then:
+    validator.validatedAccounts == ["$DOCKER_REGISTRY_ACCOUNT_NAME-1".toString()]
+    problems.problems*.message as Set == [KUBERNETES_ACCOUNT_NAME, DOCKER_REGISTRY_ACCOUNT_NAME,
+                                          "$DOCKER_REGISTRY_ACCOUNT_NAME-1", GOOGLE_ACCOUNT_NAME].collect { it.toString() } as Set
+  }
+
+  def "validating staged changes still validates the accounts they don't affect when nothing is known about them"() {
+    setup:
+    def base = mocker.mockHalconfigParser(stagedConfig(null)).getHalconfig(true)
+    def staged = mocker.mockHalconfigParser(stagedConfig(DOCKER_REGISTRY_ACCOUNT_NAME)).getHalconfig(true)
+
+    def parser = Mock(HalconfigParser)
+    parser.getHalconfig(_) >> staged
+    parser.getNodeHashes() >> new NodeHashes()
+    parser.getStagedChangesBase() >> new HalconfigSnapshot(1, base, null, HalconfigLayout.SINGLE_FILE)
+
+    def validateService = new ValidateService()
+    validateService.parser = parser
+    validateService.validatorCollection = new ValidatorCollection()
+    validateService.validatorCollection.validators = [new SlowAccountValidator()]
+    def filter = new NodeFilter().withAnyHalconfigFile()
+        .setDeployment(DEPLOYMENT_NAME)
+        .withAnyProvider()
+        .withAnyAccount()
+
+    when:
+    def problems = validateService.validateMatchingFilter(filter, Problem.Severity.FATAL)
+
+    then:
+    problems.problems*.message as Set == [KUBERNETES_ACCOUNT_NAME, DOCKER_REGISTRY_ACCOUNT_NAME,
+                                          "$DOCKER_REGISTRY_ACCOUNT_NAME-1", GOOGLE_ACCOUNT_NAME].collect { it.toString() } as Set
+  }
+
+  class SlowAccountValidator extends Validator<Account> {
+    final Random random = new Random()
+
+    @Override
+    void validate(ProblemSetBuilder p, Account n) {
+      Thread.sleep(random.nextInt(20))
+      p.addProblem(Problem.Severity.WARNING, n.getName())
+    }
+  }
+
+  class FieldAccountValidator extends Validator<Account> {
+    @Override
+    void validate(ProblemSetBuilder p, Account n) {
+      p.addProblem(Problem.Severity.WARNING, n.getName(), "name")
+    }
+  }
+
   class TrackingAccountValidator extends Validator<Account> {
     List<String> validatedAccounts = []
 
@@ -84,4 +511,12 @@ deploymentConfigurations:
       validatedAccounts.add(n.getName())
     }
   }
+
+  class ReportingAccountValidator extends TrackingAccountValidator {
+    @Override
+    void validate(ProblemSetBuilder p, Account n) {
+      super.validate(p, n)
+      p.addProblem(Problem.Severity.WARNING, n.getName())
+    }
+  }
 }
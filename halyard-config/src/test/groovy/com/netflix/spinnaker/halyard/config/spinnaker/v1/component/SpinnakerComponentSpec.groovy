@@ -16,6 +16,7 @@
 
 package com.netflix.spinnaker.halyard.config.spinnaker.v1.component
 
+import com.netflix.spinnaker.halyard.config.model.v1.node.CompiledNodeFilter
 import com.netflix.spinnaker.halyard.config.model.v1.node.LocalFile
 import com.netflix.spinnaker.halyard.config.model.v1.node.Node
 import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter
@@ -114,7 +115,7 @@ class SpinnakerComponentSpec extends Specification {
     }
 
     @Override
-    protected boolean matchesLocally(NodeFilter filter) {
+    protected boolean matchesLocally(CompiledNodeFilter filter) {
       return false
     }
 
@@ -145,7 +146,7 @@ class SpinnakerComponentSpec extends Specification {
     }
 
     @Override
-    protected boolean matchesLocally(NodeFilter filter) {
+    protected boolean matchesLocally(CompiledNodeFilter filter) {
       return false
     }
 
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.config.validate.v1
+
+import com.netflix.spinnaker.halyard.config.model.v1.node.Account
+import com.netflix.spinnaker.halyard.config.model.v1.node.Validator
+import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSetBuilder
+import com.netflix.spinnaker.halyard.config.model.v1.providers.dockerRegistry.DockerRegistryAccount
+import com.netflix.spinnaker.halyard.config.model.v1.providers.kubernetes.KubernetesAccount
+import com.netflix.spinnaker.halyard.config.model.v1.providers.kubernetes.KubernetesProvider
+import com.netflix.spinnaker.halyard.config.services.v1.HalconfigParserMocker
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.SynchronousQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+class ValidatorCollectionSpec extends Specification {
+  final List<String> validated = []
+
+  void "Runs each validator that applies to the node's class or its superclasses, in order"() {
+    setup:
+    def validatorCollection = new ValidatorCollection()
+    validatorCollection.validators = [new KubernetesAccountNameValidator(), new AccountNameValidator()]
+    def psBuilder = new ProblemSetBuilder()
+
+    when:
+    def kubernetesRuns = validatorCollection.runAllValidators(psBuilder, new KubernetesAccount().setName("k8s"))
+    def dockerRuns = validatorCollection.runAllValidators(psBuilder, new DockerRegistryAccount().setName("docker"))
+    def providerRuns = validatorCollection.runAllValidators(psBuilder, new KubernetesProvider())
+
+    then:
+    kubernetesRuns == 2
+    dockerRuns == 1
+    providerRuns == 0
+    validated == ["kubernetes k8s", "account k8s", "account docker"]
+  }
+
+  void "A failing validator doesn't stop the others from running"() {
+    setup:
+    def validatorCollection = new ValidatorCollection()
+    validatorCollection.validators = [new FailingAccountValidator(), new AccountNameValidator()]
+    def psBuilder = new ProblemSetBuilder()
+
+    when:
+    def runs = validatorCollection.runAllValidators(psBuilder, new KubernetesAccount().setName("k8s"))
+
+    then:
+    runs == 1
+    validated == ["account k8s"]
+  }
+
+  KubernetesAccount parsedAccount() {
+    String config = """
+halyardVersion: 1
+currentDeployment: default
+deploymentConfigurations:
+- name: default
+  version: 1
+  providers:
+    kubernetes:
+      enabled: true
+      accounts:
+        - name: k8s
+"""
+    def halconfig = new HalconfigParserMocker().mockHalconfigParser(config).getHalconfig(true)
+    return halconfig.deploymentConfigurations[0].providers.kubernetes.accounts[0]
+  }
+
+  void "A validator that runs past its timeout is reported and interrupted, and the others still run"() {
+    setup:
+    def executor = Executors.newCachedThreadPool()
+    def validatorCollection = new ValidatorCollection()
+    def hanging = new HangingAccountValidator()
+    validatorCollection.validators = [hanging, new AccountNameValidator()]
+    validatorCollection.validatorExecutor = executor
+    validatorCollection.validatorTimeoutSeconds = 1
+    def psBuilder = new ProblemSetBuilder()
+
+    when:
+    def runs = validatorCollection.runAllValidators(psBuilder, parsedAccount(), Long.MAX_VALUE)
+
+    then:
+    runs == 1
+    validated == ["account k8s"]
+    psBuilder.incomplete
+    psBuilder.build().problems*.message == ["HangingAccountValidator timed out after 1000ms."]
+    hanging.interrupted.await(5, TimeUnit.SECONDS)
+
+    cleanup:
+    executor.shutdownNow()
+  }
+
+  void "Validators that haven't started by the deadline are reported as skipped with a single problem"() {
+    setup:
+    def validatorCollection = new ValidatorCollection()
+    validatorCollection.validators = [new KubernetesAccountNameValidator(), new AccountNameValidator()]
+    def psBuilder = new ProblemSetBuilder()
+
+    when:
+    def runs = validatorCollection.runAllValidators(psBuilder, parsedAccount(), System.currentTimeMillis() - 1)
+
+    then:
+    runs == 0
+    validated.isEmpty()
+    psBuilder.incomplete
+    psBuilder.build().problems*.message == ["Validation ran out of time before 2 of 2 validators could run."]
+  }
+
+  void "Validators see how much of their time is left, wherever they run"() {
+    setup:
+    def executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>())
+    def busy = new CountDownLatch(1)
+    executor.submit({ busy.await() } as Runnable)
+    def validatorCollection = new ValidatorCollection()
+    def budget = new BudgetValidator()
+    validatorCollection.validators = [budget]
+    validatorCollection.validatorExecutor = executor
+    validatorCollection.validatorTimeoutSeconds = 10
+
+    when:
+    def runs = validatorCollection.runAllValidators(new ProblemSetBuilder(), parsedAccount(), Long.MAX_VALUE)
+
+    then: "the only validator thread is busy, so the validator runs on this one, with its deadline all the same"
+    runs == 1
+    budget.thread == Thread.currentThread()
+    budget.timeout > 0
+    budget.timeout <= 10000
+
+    cleanup:
+    busy.countDown()
+    executor.shutdownNow()
+  }
+
+  class AccountNameValidator extends Validator<Account> {
+    @Override
+    void validate(ProblemSetBuilder p, Account n) {
+      validated << "account " + n.getName()
+    }
+  }
+
+  class KubernetesAccountNameValidator extends Validator<KubernetesAccount> {
+    @Override
+    void validate(ProblemSetBuilder p, KubernetesAccount n) {
+      validated << "kubernetes " + n.getName()
+    }
+  }
+
+  class FailingAccountValidator extends Validator<Account> {
+    @Override
+    void validate(ProblemSetBuilder p, Account n) {
+      throw new IllegalStateException("failed")
+    }
+  }
+
+  static class BudgetValidator extends Validator<Account> {
+    Thread thread
+    int timeout
+
+    @Override
+    void validate(ProblemSetBuilder p, Account n) {
+      thread = Thread.currentThread()
+      timeout = timeoutMillis(60000)
+    }
+  }
+
+  class HangingAccountValidator extends Validator<Account> {
+    final CountDownLatch interrupted = new CountDownLatch(1)
+
+    @Override
+    void validate(ProblemSetBuilder p, Account n) {
+      try {
+        Thread.sleep(60000)
+      } catch (InterruptedException e) {
+        interrupted.countDown()
+      }
+    }
+  }
+}
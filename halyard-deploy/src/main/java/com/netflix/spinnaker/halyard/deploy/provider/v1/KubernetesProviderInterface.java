@@ -47,7 +47,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 @Component
 @Slf4j
@@ -257,22 +256,10 @@ public class KubernetesProviderInterface extends ProviderInterface<KubernetesAcc
 
     List<Node> accounts = lookupService.getMatchingNodesOfType(accountFilter, Account.class);
 
-    List<String> files = accounts.stream()
-        .map(a -> a.localFiles().stream().map(f -> {
-          f.setAccessible(true);
-          try {
-            return (String) f.get(a);
-          } catch (IllegalAccessException e) {
-            throw new RuntimeException("Failed to get local files for account " + a.getNodeName(), e);
-          }
-        }).collect(Collectors.toList()))
-        .reduce(new ArrayList<>(), (a, b) -> {
-          a.addAll(b);
-          return a;
-        })
-        .stream()
-        .filter(Objects::nonNull)
-        .collect(Collectors.toList());
+    List<String> files = new ArrayList<>();
+    for (Node account : accounts) {
+      files.addAll(account.localFilePaths());
+    }
 
     createSecret(details, files, secretName, namespace);
   }
@@ -17,7 +17,7 @@
 package com.netflix.spinnaker.halyard.deploy.services.v1;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.netflix.spinnaker.halyard.config.config.v1.AtomicFileWriter;
+import com.netflix.spinnaker.halyard.config.config.v1.AtomicFileBatch;
 import com.netflix.spinnaker.halyard.config.errors.v1.HalconfigException;
 import com.netflix.spinnaker.halyard.config.model.v1.node.DeploymentConfiguration;
 import com.netflix.spinnaker.halyard.config.model.v1.node.NodeFilter;
@@ -68,23 +68,26 @@ public class GenerateService {
   @Autowired(required = false)
   List<SpinnakerComponent> spinnakerComponents = new ArrayList<>();
 
-  void atomicWrite(Path path, String contents) {
-    AtomicFileWriter writer = null;
+  void batchWrite(AtomicFileBatch batch, Path path, String contents) {
     try {
-      writer = new AtomicFileWriter(path);
-      writer.write(contents);
-      writer.commit();
+      batch.write(path, contents);
     } catch (IOException ioe) {
-      ioe.printStackTrace();
       throw new HalconfigException(
           new ProblemBuilder(Severity.FATAL,
               "Failed to write config for profile " + path.toFile().getName() + ": " + ioe
                   .getMessage()).build()
       );
-    } finally {
-      if (writer != null) {
-        writer.close();
-      }
+    }
+  }
+
+  void batchCommit(AtomicFileBatch batch) {
+    try {
+      batch.commit();
+    } catch (IOException ioe) {
+      throw new HalconfigException(
+          new ProblemBuilder(Severity.FATAL,
+              "Failed to commit generated config to \"" + spinnakerOutputPath + "\": " + ioe.getMessage()).build()
+      );
     }
   }
 
@@ -128,26 +131,33 @@ public class GenerateService {
     }
 
     // Step 2.
-    AtomicFileWriter writer = null;
+    AtomicFileBatch batch = new AtomicFileBatch();
     Deployment deployment = deploymentFactory.create(deploymentConfiguration);
     FileSystem defaultFileSystem = FileSystems.getDefault();
     Path path = defaultFileSystem.getPath(spinnakerOutputPath, "spinnaker.yml");
 
     SpinnakerEndpoints endpoints = deployment.getEndpoints();
 
-    log.info("Writing spinnaker endpoints");
-    atomicWrite(path, yamlToString(deployment.getEndpoints()));
-
     Map<String, List<String>> requiredFiles = new HashMap<>();
 
-    // Step 3.
-    for (SpinnakerComponent component : spinnakerComponents) {
-      path = defaultFileSystem.getPath(spinnakerOutputPath, component.getConfigFileName());
-      ComponentConfig config = component.getFullConfig(nodeFilter, endpoints);
-      log.info("Writing " + component.getComponentName() + " profile");
-      atomicWrite(path, config.getConfigContents());
+    try {
+      log.info("Writing spinnaker endpoints");
+      batchWrite(batch, path, yamlToString(deployment.getEndpoints()));
+
+      // Step 3.
+      for (SpinnakerComponent component : spinnakerComponents) {
+        path = defaultFileSystem.getPath(spinnakerOutputPath, component.getConfigFileName());
+        ComponentConfig config = component.getFullConfig(nodeFilter, endpoints);
+        log.info("Writing " + component.getComponentName() + " profile");
+        batchWrite(batch, path, config.getConfigContents());
+
+        requiredFiles.put(component.getComponentName(), config.getRequiredFiles());
+      }
 
-      requiredFiles.put(component.getComponentName(), config.getRequiredFiles());
+      log.info("Committing generated profiles");
+      batchCommit(batch);
+    } finally {
+      batch.close();
     }
 
     // Step 4.
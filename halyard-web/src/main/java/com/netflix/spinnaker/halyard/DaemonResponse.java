@@ -17,12 +17,14 @@
 package com.netflix.spinnaker.halyard;
 
 import com.netflix.spinnaker.halyard.config.config.v1.HalconfigParser;
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigSnapshot;
 import com.netflix.spinnaker.halyard.config.errors.v1.HalconfigException;
 import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig;
 import com.netflix.spinnaker.halyard.config.model.v1.problem.ProblemSet;
 import java.util.function.Supplier;
 import lombok.Data;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -37,11 +39,41 @@ public class DaemonResponse<T> {
   @Getter
   private ProblemSet problemSet;
 
+  /**
+   * The generation of the halconfig this response was read from or written to, returned to the client as an ETag.
+   */
+  @Getter
+  @Setter
+  private Long generation;
+
   public DaemonResponse(T responseBody, ProblemSet problemSet) {
     this.responseBody = responseBody;
     this.problemSet = problemSet;
   }
 
+  /**
+   * @param ifMatch is the client's If-Match header, if any.
+   * @return the generation the header names, or null if it accepts any generation.
+   */
+  public static Long expectedGeneration(String ifMatch) {
+    if (ifMatch == null || ifMatch.trim().isEmpty() || ifMatch.trim().equals("*")) {
+      return null;
+    }
+
+    String tag = ifMatch.trim();
+    if (tag.startsWith("W/")) {
+      tag = tag.substring(2);
+    }
+
+    tag = tag.replace("\"", "");
+    try {
+      return Long.parseLong(tag);
+    } catch (NumberFormatException e) {
+      // Not a tag we handed out, so it can't match any generation.
+      return -1L;
+    }
+  }
+
   @Data
   public static class StaticRequestBuilder<K> {
     private Supplier<K> buildResponse;
@@ -78,8 +110,14 @@ public class DaemonResponse<T> {
     private Runnable update;
     private Supplier<ProblemSet> validate;
 
+    /**
+     * The client's If-Match header, if any. When set, the update is only applied to the generation it names.
+     */
+    private String ifMatch;
+
     public DaemonResponse<Void> build() {
       ProblemSet result;
+      halconfigParser.beginChanges(expectedGeneration(ifMatch));
       try {
         update.run();
         result = validate.get();
@@ -92,8 +130,10 @@ public class DaemonResponse<T> {
         throw e;
       }
 
-      halconfigParser.saveConfig();
-      return new DaemonResponse<>(null, result);
+      HalconfigSnapshot saved = halconfigParser.saveConfig();
+      DaemonResponse<Void> response = new DaemonResponse<>(null, result);
+      response.setGeneration(saved.getGeneration());
+      return response;
     }
   }
 }
@@ -32,6 +32,7 @@ import java.util.function.Supplier;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -95,7 +96,8 @@ public class AccountController {
       @PathVariable String providerName,
       @PathVariable String accountName,
       @RequestParam(required = false, defaultValue = DefaultControllerValues.validate) boolean validate,
-      @RequestParam(required = false, defaultValue = DefaultControllerValues.severity) Severity severity) {
+      @RequestParam(required = false, defaultValue = DefaultControllerValues.severity) Severity severity,
+      @RequestHeader(value = "If-Match", required = false) String ifMatch) {
     NodeFilter filter = new NodeFilter()
         .setDeployment(deploymentName)
         .setProvider(providerName)
@@ -112,6 +114,7 @@ public class AccountController {
 
     builder.setValidate(doValidate);
     builder.setHalconfigParser(halconfigParser);
+    builder.setIfMatch(ifMatch);
 
     return builder.build();
   }
@@ -123,6 +126,7 @@ public class AccountController {
       @PathVariable String accountName,
       @RequestParam(required = false, defaultValue = DefaultControllerValues.validate) boolean validate,
       @RequestParam(required = false, defaultValue = DefaultControllerValues.severity) Severity severity,
+      @RequestHeader(value = "If-Match", required = false) String ifMatch,
       @RequestBody Object rawAccount) {
     NodeFilter filter = new NodeFilter()
         .setDeployment(deploymentName)
@@ -145,6 +149,7 @@ public class AccountController {
 
     builder.setValidate(doValidate);
     builder.setHalconfigParser(halconfigParser);
+    builder.setIfMatch(ifMatch);
 
     return builder.build();
   }
@@ -155,6 +160,7 @@ public class AccountController {
       @PathVariable String providerName,
       @RequestParam(required = false, defaultValue = DefaultControllerValues.validate) boolean validate,
       @RequestParam(required = false, defaultValue = DefaultControllerValues.severity) Severity severity,
+      @RequestHeader(value = "If-Match", required = false) String ifMatch,
       @RequestBody Object rawAccount) {
     Account account = objectMapper.convertValue(
         rawAccount,
@@ -177,6 +183,7 @@ public class AccountController {
 
     builder.setValidate(doValidate);
     builder.setHalconfigParser(halconfigParser);
+    builder.setIfMatch(ifMatch);
 
     return builder.build();
   }
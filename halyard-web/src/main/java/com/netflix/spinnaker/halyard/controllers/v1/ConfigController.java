@@ -18,13 +18,23 @@ package com.netflix.spinnaker.halyard.controllers.v1;
 
 import com.netflix.spinnaker.halyard.DaemonResponse;
 import com.netflix.spinnaker.halyard.DaemonResponse.StaticRequestBuilder;
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigLayout;
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigParser;
 import com.netflix.spinnaker.halyard.config.model.v1.node.Halconfig;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeQuery;
+import com.netflix.spinnaker.halyard.config.model.v1.node.NodeQueryResult;
 import com.netflix.spinnaker.halyard.config.services.v1.ConfigService;
+import com.netflix.spinnaker.halyard.config.services.v1.QueryService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Reports the entire contents of ~/.hal/config
  */
@@ -34,6 +44,12 @@ public class ConfigController {
   @Autowired
   ConfigService configService;
 
+  @Autowired
+  QueryService queryService;
+
+  @Autowired
+  HalconfigParser halconfigParser;
+
   @RequestMapping(value = "/", method = RequestMethod.GET)
   DaemonResponse<Halconfig> config() {
     StaticRequestBuilder<Halconfig> builder = new StaticRequestBuilder<>();
@@ -47,4 +63,45 @@ public class ConfigController {
     builder.setBuildResponse(() -> configService.getCurrentDeployment());
     return builder.build();
   }
+
+  @RequestMapping(value = "/hash", method = RequestMethod.GET)
+  DaemonResponse<String> hash() {
+    StaticRequestBuilder<String> builder = new StaticRequestBuilder<>();
+    builder.setBuildResponse(() -> configService.getConfigHash());
+    return builder.build();
+  }
+
+  @RequestMapping(value = "/query", method = RequestMethod.POST)
+  DaemonResponse<Map<String, NodeQueryResult>> query(@RequestBody Map<String, NodeQuery> queries) {
+    // This only reads the config, so like a GET it's answered from a single snapshot, which the SnapshotInterceptor
+    // unpins once the request completes.
+    halconfigParser.pinSnapshot();
+
+    StaticRequestBuilder<Map<String, NodeQueryResult>> builder = new StaticRequestBuilder<>();
+    builder.setBuildResponse(() -> queryService.query(queries));
+    DaemonResponse<Map<String, NodeQueryResult>> response = builder.build();
+    response.setGeneration(halconfigParser.getSnapshot().getGeneration());
+    return response;
+  }
+
+  @RequestMapping(value = "/layout", method = RequestMethod.GET)
+  DaemonResponse<HalconfigLayout> layout() {
+    StaticRequestBuilder<HalconfigLayout> builder = new StaticRequestBuilder<>();
+    builder.setBuildResponse(() -> configService.getLayout());
+    return builder.build();
+  }
+
+  @RequestMapping(value = "/layout", method = RequestMethod.PUT)
+  DaemonResponse<Void> setLayout(@RequestBody HalconfigLayout layout,
+      @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+    AtomicLong generation = new AtomicLong();
+    StaticRequestBuilder<Void> builder = new StaticRequestBuilder<>();
+    builder.setBuildResponse(() -> {
+      generation.set(configService.setLayout(layout, DaemonResponse.expectedGeneration(ifMatch)));
+      return null;
+    });
+    DaemonResponse<Void> response = builder.build();
+    response.setGeneration(generation.get());
+    return response;
+  }
 }
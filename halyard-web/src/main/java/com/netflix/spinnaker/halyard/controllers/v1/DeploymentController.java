@@ -28,6 +28,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/v1/config/deployments")
@@ -57,6 +58,16 @@ public class DeploymentController {
     return builder.build();
   }
 
+  @RequestMapping(value = "/{deployment:.+}/hashes", method = RequestMethod.GET)
+  DaemonResponse<Map<String, String>> deploymentHashes(@PathVariable String deployment) {
+    NodeFilter filter = new NodeFilter().setDeployment(deployment);
+    StaticRequestBuilder<Map<String, String>> builder = new StaticRequestBuilder<>();
+
+    builder.setBuildResponse(() -> deploymentService.getDeploymentHashes(filter));
+
+    return builder.build();
+  }
+
   @RequestMapping(value = "/", method = RequestMethod.GET)
   DaemonResponse<List<DeploymentConfiguration>> deploymentConfigurations(
       @RequestParam(required = false, defaultValue = DefaultControllerValues.validate) boolean validate,
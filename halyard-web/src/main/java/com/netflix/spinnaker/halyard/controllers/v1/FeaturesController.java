@@ -62,6 +62,7 @@ public class FeaturesController {
       @PathVariable String deployment,
       @RequestParam(required = false, defaultValue = DefaultControllerValues.validate) boolean validate,
       @RequestParam(required = false, defaultValue = DefaultControllerValues.severity) Severity severity,
+      @RequestHeader(value = "If-Match", required = false) String ifMatch,
       @RequestBody Object rawFeatures) {
     NodeFilter filter = new NodeFilter().setDeployment(deployment);
 
@@ -75,6 +76,7 @@ public class FeaturesController {
 
     builder.setValidate(doValidate);
     builder.setHalconfigParser(halconfigParser);
+    builder.setIfMatch(ifMatch);
 
     return builder.build();
   }
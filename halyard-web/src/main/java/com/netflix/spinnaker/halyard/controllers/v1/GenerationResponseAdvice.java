@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.netflix.spinnaker.halyard.controllers.v1;
+
+import com.netflix.spinnaker.halyard.DaemonResponse;
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigParser;
+import com.netflix.spinnaker.halyard.config.errors.v1.HalconfigException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Tags every response with the generation of the halconfig it was read from or written to, so that clients can send it
+ * back as an If-Match header to only update the config they last saw.
+ */
+@ControllerAdvice
+public class GenerationResponseAdvice implements ResponseBodyAdvice<Object> {
+  @Autowired
+  HalconfigParser halconfigParser;
+
+  @Override
+  public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+    return DaemonResponse.class.isAssignableFrom(returnType.getParameterType());
+  }
+
+  @Override
+  public Object beforeBodyWrite(Object body,
+      MethodParameter returnType,
+      MediaType selectedContentType,
+      Class<? extends HttpMessageConverter<?>> selectedConverterType,
+      ServerHttpRequest request,
+      ServerHttpResponse response) {
+    if (!(body instanceof DaemonResponse)) {
+      return body;
+    }
+
+    DaemonResponse daemonResponse = (DaemonResponse) body;
+    if (daemonResponse.getGeneration() == null && request.getMethod() == HttpMethod.GET) {
+      // Read-only requests are pinned to a single snapshot by the SnapshotInterceptor.
+      try {
+        daemonResponse.setGeneration(halconfigParser.getSnapshot().getGeneration());
+      } catch (HalconfigException e) {
+        // The response didn't come from a readable halconfig, so there is no generation to tag it with.
+      }
+    }
+
+    if (daemonResponse.getGeneration() != null) {
+      response.getHeaders().set(HttpHeaders.ETAG, "\"" + daemonResponse.getGeneration() + "\"");
+    }
+
+    return body;
+  }
+}
@@ -30,6 +30,7 @@ import java.util.function.Supplier;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -71,6 +72,7 @@ public class ProviderController {
       @PathVariable String provider,
       @RequestParam(required = false, defaultValue = DefaultControllerValues.validate) boolean validate,
       @RequestParam(required = false, defaultValue = DefaultControllerValues.severity) Severity severity,
+      @RequestHeader(value = "If-Match", required = false) String ifMatch,
       @RequestBody boolean enabled) {
     NodeFilter filter = new NodeFilter()
         .setDeployment(deployment)
@@ -87,6 +89,7 @@ public class ProviderController {
 
     builder.setValidate(doValidate);
     builder.setHalconfigParser(halconfigParser);
+    builder.setIfMatch(ifMatch);
 
     return builder.build();
   }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.spinnaker.halyard.metrics.v1;
+
+import com.netflix.spinnaker.halyard.config.config.v1.AtomicFileMetrics;
+import com.netflix.spinnaker.halyard.config.config.v1.HalconfigParser;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reports how the daemon is reading & writing the halconfig on the /metrics endpoint.
+ */
+@Component
+public class HalconfigMetrics implements PublicMetrics {
+  @Autowired
+  HalconfigParser halconfigParser;
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> result = new ArrayList<>();
+
+    result.add(new Metric<>("halconfig.parseCache.hits", halconfigParser.getParseCacheHits().get()));
+    result.add(new Metric<>("halconfig.parseCache.misses", halconfigParser.getParseCacheMisses().get()));
+
+    result.add(new Metric<>("halconfig.files.writes", AtomicFileMetrics.getWrites()));
+    result.add(new Metric<>("halconfig.files.writeMillis", AtomicFileMetrics.getWriteMillis()));
+    result.add(new Metric<>("halconfig.files.commits", AtomicFileMetrics.getCommits()));
+    result.add(new Metric<>("halconfig.files.commitMillis", AtomicFileMetrics.getCommitMillis()));
+
+    return result;
+  }
+}